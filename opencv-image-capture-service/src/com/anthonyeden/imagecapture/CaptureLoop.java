@@ -0,0 +1,228 @@
+package com.anthonyeden.imagecapture;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.opencv.core.Mat;
+
+/**
+ * Runs the capture and processing of a single stream as a plain blocking loop
+ * on its own thread: read a frame, hand it to the handler, then sleep until the
+ * next frame is due. This is an alternative to scheduling a grab on a
+ * single-thread scheduled executor per stream.
+ * 
+ * The thread comes from the given ThreadFactory. On a JVM with virtual threads
+ * use {@link #virtualThreads()} so that many streams can wait in pacing sleeps
+ * without holding a platform thread each. A read from a VideoCapture is a JNI
+ * call, though, and a virtual thread blocked in it pins its carrier thread for
+ * the whole read, so with real cameras virtual threads do not save carriers
+ * while reading. Only sources that block in Java, such as sockets or sleeps,
+ * release the carrier.
+ * 
+ * When a processing executor is given, the handler runs on it while the loop
+ * thread waits for it to finish. Give it a bounded pool of platform threads so
+ * that CPU-heavy stages run on as many threads as there are CPUs rather than on
+ * the carriers of the virtual threads.
+ */
+public class CaptureLoop {
+
+    private FrameSource source;
+    private Consumer<Mat> handler;
+    private long periodNanos;
+    private ThreadFactory threadFactory;
+    private Executor processingExecutor;
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private AtomicLong framesHandled = new AtomicLong();
+
+    /**
+     * Construct a new capture loop.
+     * 
+     * @param source
+     *            The source to read frames from
+     * @param fps
+     *            The maximum rate at which frames are read
+     * @param handler
+     *            Called with each frame read. The Mat is reused for the next
+     *            read, so the handler must not keep a reference to it.
+     * @param threadFactory
+     *            The factory used to create the loop thread
+     */
+    public CaptureLoop(FrameSource source, double fps, Consumer<Mat> handler, ThreadFactory threadFactory) {
+	this(source, fps, handler, threadFactory, null);
+    }
+
+    /**
+     * Construct a new capture loop that runs the handler on the given executor.
+     * 
+     * @param source
+     *            The source to read frames from
+     * @param fps
+     *            The maximum rate at which frames are read
+     * @param handler
+     *            Called with each frame read. The Mat is reused for the next
+     *            read, so the handler must not keep a reference to it.
+     * @param threadFactory
+     *            The factory used to create the loop thread
+     * @param processingExecutor
+     *            The executor the handler runs on, or null to run it on the loop
+     *            thread
+     */
+    public CaptureLoop(FrameSource source, double fps, Consumer<Mat> handler, ThreadFactory threadFactory,
+	    Executor processingExecutor) {
+	this.source = source;
+	this.handler = handler;
+	this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+	this.threadFactory = threadFactory;
+	this.processingExecutor = processingExecutor;
+    }
+
+    /**
+     * Start the loop thread.
+     */
+    public synchronized void start() {
+	if (thread != null) {
+	    throw new IllegalStateException("Capture loop already started");
+	}
+	running = true;
+	thread = threadFactory.newThread(this::run);
+	thread.start();
+    }
+
+    /**
+     * Stop the loop and wait for the loop thread to finish.
+     * 
+     * @throws InterruptedException
+     *             If interrupted while waiting
+     */
+    public synchronized void stop() throws InterruptedException {
+	running = false;
+	if (thread != null) {
+	    thread.interrupt();
+	    thread.join();
+	}
+    }
+
+    /**
+     * Return true while the loop thread is running.
+     * 
+     * @return True if running
+     */
+    public boolean isRunning() {
+	return running;
+    }
+
+    /**
+     * Return the number of frames passed to the handler so far.
+     * 
+     * @return The number of frames handled
+     */
+    public long getFramesHandled() {
+	return framesHandled.get();
+    }
+
+    private void run() {
+	Mat frame = new Mat();
+	long nextFrameTime = System.nanoTime();
+	try {
+	    while (running) {
+		try {
+		    if (source.read(frame) && !frame.empty()) {
+			handle(frame);
+			framesHandled.incrementAndGet();
+		    }
+		} catch (RuntimeException e) {
+		    System.err.println("Exception during the image elaboration: " + e);
+		} catch (ExecutionException e) {
+		    System.err.println("Exception during the image elaboration: " + e.getCause());
+		}
+
+		// Pace to the requested rate. If we fell behind, start counting from
+		// now instead of reading a burst of frames to catch up.
+		nextFrameTime = nextFrameTime + periodNanos;
+		long delay = nextFrameTime - System.nanoTime();
+		if (delay > 0) {
+		    TimeUnit.NANOSECONDS.sleep(delay);
+		} else {
+		    nextFrameTime = System.nanoTime();
+		}
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	} finally {
+	    running = false;
+	    frame.release();
+	}
+    }
+
+    private void handle(Mat frame) throws InterruptedException, ExecutionException {
+	if (processingExecutor == null) {
+	    handler.accept(frame);
+	    return;
+	}
+	// Wait for the stage so the frame is not overwritten by the next read
+	FutureTask<Void> stage = new FutureTask<>(() -> handler.accept(frame), null);
+	processingExecutor.execute(stage);
+	try {
+	    stage.get();
+	} catch (InterruptedException e) {
+	    // Let a stage that already started finish with the frame before the
+	    // loop releases it
+	    stage.cancel(false);
+	    while (!stage.isDone()) {
+		try {
+		    stage.get();
+		} catch (InterruptedException | ExecutionException ignored) {
+		    // Keep waiting, the interrupt is rethrown below
+		}
+	    }
+	    throw e;
+	}
+    }
+
+    /**
+     * Return a factory for ordinary platform threads.
+     * 
+     * @return The thread factory
+     */
+    public static ThreadFactory platformThreads() {
+	return Executors.defaultThreadFactory();
+    }
+
+    /**
+     * Return a factory for virtual threads if the running JVM supports them,
+     * otherwise a factory for platform threads. This is looked up reflectively so
+     * the project still builds for Java 8.
+     * 
+     * @return The thread factory
+     */
+    public static ThreadFactory virtualThreads() {
+	try {
+	    Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+	    return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+	} catch (ReflectiveOperationException e) {
+	    return platformThreads();
+	}
+    }
+
+    /**
+     * Return true if {@link #virtualThreads()} will create virtual threads.
+     * 
+     * @return True if virtual threads are available
+     */
+    public static boolean isVirtualThreadsAvailable() {
+	try {
+	    Thread.class.getMethod("ofVirtual");
+	    return true;
+	} catch (NoSuchMethodException e) {
+	    return false;
+	}
+    }
+}
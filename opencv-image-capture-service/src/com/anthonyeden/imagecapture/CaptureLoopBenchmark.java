@@ -0,0 +1,171 @@
+package com.anthonyeden.imagecapture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Compares the scheduled executor per stream model used by the Service with a
+ * CaptureLoop per stream on platform threads, on virtual threads, and on
+ * virtual threads handing the processing to a pool of platform threads. Each
+ * stream does a blur and a color conversion per frame. Each stream reuses its
+ * own Mats so that the numbers reflect the threading model rather than native
+ * allocation.
+ * 
+ * Every model is run with two kinds of source, both blocking for
+ * READ_BLOCK_MILLIS per read. A "java" source blocks in a plain sleep, which
+ * releases the carrier of a virtual thread. A "pinned" source blocks while
+ * holding a monitor, which pins the carrier like the JNI call in
+ * VideoCapture.read does, so it stands in for a real camera.
+ */
+public class CaptureLoopBenchmark {
+
+    public static int[] STREAM_COUNTS = { 1, 16, 128 };
+    public static double STREAM_FPS = 30;
+    public static int FRAME_WIDTH = 320;
+    public static int FRAME_HEIGHT = 240;
+    public static long RUN_MILLIS = 5000;
+    public static long READ_BLOCK_MILLIS = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+	OpenCvLoader.load();
+
+	System.out.println("Virtual threads available: " + CaptureLoop.isVirtualThreadsAvailable());
+	System.out.println("source\tmodel\tstreams\tframes\tfps/stream\tthreads");
+	for (boolean pinned : new boolean[] { false, true }) {
+	    for (int streams : STREAM_COUNTS) {
+		// Each stream is a Java thread calling into OpenCV
+		RuntimeConfig.apply(streams);
+		runScheduled(streams, pinned);
+		runLoops("loop-platform", streams, pinned, false, false);
+		if (CaptureLoop.isVirtualThreadsAvailable()) {
+		    runLoops("loop-virtual", streams, pinned, true, false);
+		    runLoops("loop-virtual+pool", streams, pinned, true, true);
+		}
+	    }
+	}
+    }
+
+    /**
+     * A source whose reads block for READ_BLOCK_MILLIS, like a camera read
+     * waiting for the driver, and then draw the frame with a SyntheticFrameSource
+     * that never blocks.
+     */
+    private static class BlockingSource implements FrameSource {
+	private SyntheticFrameSource frames = new SyntheticFrameSource(FRAME_WIDTH, FRAME_HEIGHT, 1e6);
+	private boolean pinned;
+	private Object monitor = new Object();
+
+	BlockingSource(boolean pinned) {
+	    this.pinned = pinned;
+	}
+
+	@Override
+	public boolean read(Mat frame) {
+	    try {
+		if (pinned) {
+		    // A sleep inside a monitor pins the carrier without the scheduler
+		    // adding a carrier to compensate, as a blocking JNI call does
+		    synchronized (monitor) {
+			Thread.sleep(READ_BLOCK_MILLIS);
+		    }
+		} else {
+		    Thread.sleep(READ_BLOCK_MILLIS);
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return false;
+	    }
+	    return frames.read(frame);
+	}
+
+	@Override
+	public void release() {
+	}
+    }
+
+    private static void runScheduled(int streams, boolean pinned) throws InterruptedException {
+	AtomicLong frames = new AtomicLong();
+	List<ScheduledExecutorService> timers = new ArrayList<>();
+	long frameGrabSchedule = (long) ((1f / STREAM_FPS) * 1000f);
+	for (int i = 0; i < streams; i++) {
+	    FrameSource source = new BlockingSource(pinned);
+	    Runnable frameGrabber = new Runnable() {
+		private Mat frame = new Mat();
+		private Mat[] buffers = { new Mat(), new Mat() };
+
+		@Override
+		public void run() {
+		    if (source.read(frame)) {
+			process(frame, buffers);
+			frames.incrementAndGet();
+		    }
+		}
+	    };
+	    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+	    timer.scheduleAtFixedRate(frameGrabber, 0, frameGrabSchedule, TimeUnit.MILLISECONDS);
+	    timers.add(timer);
+	}
+
+	long start = frames.get();
+	Thread.sleep(RUN_MILLIS);
+	long handled = frames.get() - start;
+	int threads = Thread.activeCount();
+	for (ScheduledExecutorService timer : timers) {
+	    timer.shutdownNow();
+	}
+	for (ScheduledExecutorService timer : timers) {
+	    timer.awaitTermination(1, TimeUnit.SECONDS);
+	}
+	report(pinned, "scheduled", streams, handled, threads);
+    }
+
+    private static void runLoops(String model, int streams, boolean pinned, boolean virtual, boolean pool)
+	    throws InterruptedException {
+	AtomicLong frames = new AtomicLong();
+	List<CaptureLoop> loops = new ArrayList<>();
+	ExecutorService processingPool = pool ? Executors.newFixedThreadPool(RuntimeConfig.CPUS) : null;
+	for (int i = 0; i < streams; i++) {
+	    FrameSource source = new BlockingSource(pinned);
+	    Mat[] buffers = { new Mat(), new Mat() };
+	    CaptureLoop loop = new CaptureLoop(source, STREAM_FPS, frame -> {
+		process(frame, buffers);
+		frames.incrementAndGet();
+	    }, virtual ? CaptureLoop.virtualThreads() : CaptureLoop.platformThreads(), processingPool);
+	    loop.start();
+	    loops.add(loop);
+	}
+
+	long start = frames.get();
+	Thread.sleep(RUN_MILLIS);
+	long handled = frames.get() - start;
+	// Thread.activeCount does not include virtual threads
+	int threads = Thread.activeCount();
+	for (CaptureLoop loop : loops) {
+	    loop.stop();
+	}
+	if (processingPool != null) {
+	    processingPool.shutdown();
+	}
+	report(pinned, model, streams, handled, threads);
+    }
+
+    private static void process(Mat frame, Mat[] buffers) {
+	Imgproc.blur(frame, buffers[0], new Size(7, 7));
+	Imgproc.cvtColor(buffers[0], buffers[1], Imgproc.COLOR_BGR2GRAY);
+    }
+
+    private static void report(boolean pinned, String model, int streams, long frames, int threads) {
+	double fpsPerStream = frames / (RUN_MILLIS / 1000.0) / streams;
+	System.out.println(String.format("%s\t%s\t%d\t%d\t%.1f\t%d", pinned ? "pinned" : "java", model, streams,
+		frames, fpsPerStream, threads));
+    }
+}
@@ -0,0 +1,83 @@
+package com.anthonyeden.imagecapture;
+
+import org.opencv.core.Mat;
+
+/**
+ * A frame together with where and when it was captured. The capture time is
+ * taken from System.nanoTime right after the frame is read, so the time spent
+ * in each later stage, and the total latency up to a decision, can be measured
+ * against it. The wall clock time of the capture is kept for persistence.
+ */
+public class CapturedFrame {
+
+    private final Mat mat;
+    private final String sourceId;
+    private final long sequence;
+    private final long captureNanos;
+    private final long captureMillis;
+
+    /**
+     * Wrap a frame that was just read.
+     * 
+     * @param mat
+     *            The frame
+     * @param sourceId
+     *            The ID of the camera or file the frame came from
+     * @param sequence
+     *            The number of the frame within its source
+     */
+    public CapturedFrame(Mat mat, String sourceId, long sequence) {
+	this(mat, sourceId, sequence, System.nanoTime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Wrap a frame that was captured at the given time.
+     * 
+     * @param mat
+     *            The frame
+     * @param sourceId
+     *            The ID of the camera or file the frame came from
+     * @param sequence
+     *            The number of the frame within its source
+     * @param captureNanos
+     *            The System.nanoTime of the capture
+     * @param captureMillis
+     *            The wall clock time of the capture
+     */
+    public CapturedFrame(Mat mat, String sourceId, long sequence, long captureNanos, long captureMillis) {
+	this.mat = mat;
+	this.sourceId = sourceId;
+	this.sequence = sequence;
+	this.captureNanos = captureNanos;
+	this.captureMillis = captureMillis;
+    }
+
+    public Mat getMat() {
+	return mat;
+    }
+
+    public String getSourceId() {
+	return sourceId;
+    }
+
+    public long getSequence() {
+	return sequence;
+    }
+
+    public long getCaptureNanos() {
+	return captureNanos;
+    }
+
+    public long getCaptureMillis() {
+	return captureMillis;
+    }
+
+    /**
+     * Return the time since the frame was captured.
+     * 
+     * @return The age of the frame in nanoseconds
+     */
+    public long getAgeNanos() {
+	return System.nanoTime() - captureNanos;
+    }
+}
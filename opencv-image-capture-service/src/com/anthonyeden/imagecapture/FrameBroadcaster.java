@@ -0,0 +1,198 @@
+package com.anthonyeden.imagecapture;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Holds the latest frame for any number of readers. Publishing a frame only
+ * copies it, so the capture thread never waits on a reader. While nobody is
+ * subscribed only one frame per keep interval is copied, so that a snapshot can
+ * still be served at once without copying every frame. Each frame is encoded
+ * to JPEG at most once, by the first reader that asks for it, and shared with
+ * every other reader. Readers that fall behind get the newest frame and skip
+ * the ones in between.
+ */
+public class FrameBroadcaster {
+
+    /**
+     * A JPEG encoded frame and the version it was encoded from.
+     */
+    public static class EncodedFrame {
+	public final long version;
+	public final byte[] jpeg;
+
+	EncodedFrame(long version, byte[] jpeg) {
+	    this.version = version;
+	    this.jpeg = jpeg;
+	}
+    }
+
+    public static long DEFAULT_KEEP_INTERVAL_MILLIS = 1000;
+
+    private MatOfInt encodeParams;
+    private long keepIntervalMillis;
+
+    private Mat latest = new Mat();
+    private long version = 0;
+    private long keptMillis;
+    private int subscribers = 0;
+
+    private Object encodeLock = new Object();
+    private Mat encodeBuffer = new Mat();
+    private MatOfByte encodeOutput = new MatOfByte();
+    private volatile EncodedFrame encoded;
+
+    /**
+     * Construct a new broadcaster that keeps a frame every
+     * DEFAULT_KEEP_INTERVAL_MILLIS while nobody is subscribed.
+     * 
+     * @param jpegQuality
+     *            The JPEG quality, from 0 to 100
+     */
+    public FrameBroadcaster(int jpegQuality) {
+	this(jpegQuality, DEFAULT_KEEP_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Construct a new broadcaster.
+     * 
+     * @param jpegQuality
+     *            The JPEG quality, from 0 to 100
+     * @param keepIntervalMillis
+     *            How often a frame is kept while nobody is subscribed, which is
+     *            how old the frame served by {@link #latest()} can be
+     */
+    public FrameBroadcaster(int jpegQuality, long keepIntervalMillis) {
+	this.encodeParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, jpegQuality);
+	this.keepIntervalMillis = keepIntervalMillis;
+    }
+
+    /**
+     * Make the given frame the latest frame and wake any waiting readers. If
+     * there are no subscribers the frame is dropped without being copied,
+     * unless the kept frame is older than the keep interval.
+     * 
+     * @param frame
+     *            The frame, which is copied
+     */
+    public synchronized void publish(Mat frame) {
+	long now = System.currentTimeMillis();
+	if (subscribers == 0 && version > 0 && now - keptMillis < keepIntervalMillis) {
+	    return;
+	}
+	frame.copyTo(latest);
+	version = version + 1;
+	keptMillis = now;
+	notifyAll();
+    }
+
+    /**
+     * Register a reader, so that published frames are kept until it calls
+     * {@link #unsubscribe()}.
+     * 
+     * @return The version of the latest frame, which may be old, so the reader
+     *         can wait for a newer one
+     */
+    public synchronized long subscribe() {
+	subscribers = subscribers + 1;
+	return version;
+    }
+
+    /**
+     * Unregister a reader registered with {@link #subscribe()}.
+     */
+    public synchronized void unsubscribe() {
+	subscribers = subscribers - 1;
+    }
+
+    /**
+     * Return the number of subscribed readers.
+     * 
+     * @return The number of subscribers
+     */
+    public synchronized int getSubscriberCount() {
+	return subscribers;
+    }
+
+    /**
+     * Subscribe for a single frame: wait for the next frame to be published and
+     * return it encoded as JPEG.
+     * 
+     * @param timeoutMillis
+     *            How long to wait for the frame
+     * @return The encoded frame, or null if no frame arrived in time
+     * @throws InterruptedException
+     *             If interrupted while waiting
+     */
+    public EncodedFrame next(long timeoutMillis) throws InterruptedException {
+	long seenVersion = subscribe();
+	try {
+	    return awaitNewer(seenVersion, timeoutMillis);
+	} finally {
+	    unsubscribe();
+	}
+    }
+
+    /**
+     * Return the latest frame encoded as JPEG, or null if no frame has been
+     * published yet. While there are no subscribers the frame can be up to the
+     * keep interval old.
+     * 
+     * @return The encoded frame
+     */
+    public EncodedFrame latest() {
+	synchronized (this) {
+	    if (version == 0) {
+		return null;
+	    }
+	}
+	return encode();
+    }
+
+    /**
+     * Wait for a frame newer than the given version and return it encoded as
+     * JPEG.
+     * 
+     * @param seenVersion
+     *            The version of the last frame the reader received
+     * @param timeoutMillis
+     *            How long to wait for a new frame
+     * @return The encoded frame, or null if no newer frame arrived in time
+     * @throws InterruptedException
+     *             If interrupted while waiting
+     */
+    public EncodedFrame awaitNewer(long seenVersion, long timeoutMillis) throws InterruptedException {
+	synchronized (this) {
+	    long deadline = System.currentTimeMillis() + timeoutMillis;
+	    while (version <= seenVersion) {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+		    return null;
+		}
+		wait(remaining);
+	    }
+	}
+	return encode();
+    }
+
+    private EncodedFrame encode() {
+	synchronized (encodeLock) {
+	    long current;
+	    synchronized (this) {
+		current = version;
+		EncodedFrame cached = encoded;
+		if (cached != null && cached.version == current) {
+		    return cached;
+		}
+		latest.copyTo(encodeBuffer);
+	    }
+
+	    // Encode outside the frame lock so publishing is never held up
+	    Imgcodecs.imencode(".jpg", encodeBuffer, encodeOutput, encodeParams);
+	    encoded = new EncodedFrame(current, encodeOutput.toArray());
+	    return encoded;
+	}
+    }
+}
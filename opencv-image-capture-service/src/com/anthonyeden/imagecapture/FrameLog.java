@@ -0,0 +1,393 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+
+/**
+ * A preallocated, memory-mapped ring of raw frames. Each slot holds one frame
+ * with its sequence, frame number, timestamp, size and type, so frames can be
+ * read back without decoding and located by frame number or timestamp.
+ * 
+ * The file starts with a header of {@link #HEADER_SIZE} bytes holding the
+ * magic number, version, slot count, slot size and the number of frames
+ * written so far. Slot i starts at HEADER_SIZE + i * slotSize and holds a
+ * {@link #SLOT_HEADER_SIZE} byte header followed by the pixel data. Frame n is
+ * written to slot n % slotCount, overwriting the oldest frame once the ring is
+ * full.
+ */
+public class FrameLog {
+
+    public static final int MAGIC = 0x464c4f47;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 40;
+
+    /**
+     * How many incompatible logs moved aside by {@link #openOrCreate} are kept.
+     * The oldest are deleted beyond this.
+     */
+    public static int MAX_OLD_LOGS = 2;
+
+    private static final int FILL_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int SLOT_SIZE_OFFSET = 12;
+    private static final int WRITE_COUNT_OFFSET = 16;
+
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int FRAME_NUMBER_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 12;
+    private static final int ROWS_OFFSET = 20;
+    private static final int COLS_OFFSET = 24;
+    private static final int TYPE_OFFSET = 28;
+    private static final int LENGTH_OFFSET = 32;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] chunks;
+    private int slotsPerChunk;
+    private int slotCount;
+    private int slotSize;
+    private byte[] pixels = new byte[0];
+
+    /**
+     * Create a new frame log, replacing any existing file, and preallocate room
+     * for the given number of frames. The whole file is written with zeros rather
+     * than only extended, since an extended file is sparse: a full disk would then
+     * only show up as a fault on a mapped write while recording, instead of as an
+     * IOException here.
+     * 
+     * @param file
+     *            The log file
+     * @param slotCount
+     *            The number of frames the ring holds
+     * @param maxFrameBytes
+     *            The largest frame, in bytes, that will be written
+     * @return The frame log, open for writing
+     * @throws IOException
+     *             If the file cannot be created
+     */
+    public static FrameLog create(File file, int slotCount, int maxFrameBytes) throws IOException {
+	int slotSize = SLOT_HEADER_SIZE + maxFrameBytes;
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+	    raf.setLength(0);
+	    fill(raf.getChannel(), HEADER_SIZE + (long) slotCount * slotSize);
+	} catch (IOException e) {
+	    raf.close();
+	    throw e;
+	}
+	FrameLog log = new FrameLog(raf, MapMode.READ_WRITE, slotCount, slotSize);
+	log.header.putInt(MAGIC_OFFSET, MAGIC);
+	log.header.putInt(VERSION_OFFSET, VERSION);
+	log.header.putInt(SLOT_COUNT_OFFSET, slotCount);
+	log.header.putInt(SLOT_SIZE_OFFSET, slotSize);
+	log.header.putLong(WRITE_COUNT_OFFSET, 0);
+	for (int i = 0; i < slotCount; i++) {
+	    log.slot(i).putLong(SEQUENCE_OFFSET, -1);
+	}
+	return log;
+    }
+
+    /**
+     * Open an existing frame log for writing and continue after the last frame it
+     * holds, or create a new one if there is none. A file that is not a frame
+     * log, or whose slots do not match, is renamed aside rather than replaced so
+     * an earlier recording is never lost.
+     * 
+     * @param file
+     *            The log file
+     * @param slotCount
+     *            The number of frames the ring holds
+     * @param maxFrameBytes
+     *            The largest frame, in bytes, that will be written
+     * @return The frame log, open for writing
+     * @throws IOException
+     *             If the file cannot be opened, moved aside or created
+     */
+    public static FrameLog openOrCreate(File file, int slotCount, int maxFrameBytes) throws IOException {
+	if (!file.exists()) {
+	    return create(file, slotCount, maxFrameBytes);
+	}
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	int slotSize = -1;
+	if (raf.length() >= HEADER_SIZE) {
+	    ByteBuffer header = raf.getChannel().map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+	    if (header.getInt(MAGIC_OFFSET) == MAGIC && header.getInt(VERSION_OFFSET) == VERSION
+		    && header.getInt(SLOT_COUNT_OFFSET) == slotCount) {
+		slotSize = header.getInt(SLOT_SIZE_OFFSET);
+	    }
+	}
+	if (slotSize >= SLOT_HEADER_SIZE + maxFrameBytes
+		&& raf.length() == HEADER_SIZE + (long) slotCount * slotSize) {
+	    return new FrameLog(raf, MapMode.READ_WRITE, slotCount, slotSize);
+	}
+	raf.close();
+
+	File aside = new File(file.getPath() + "." + System.currentTimeMillis() + ".old");
+	if (!file.renameTo(aside)) {
+	    throw new IOException("Cannot move incompatible frame log " + file + " to " + aside);
+	}
+	System.err.println("Moved incompatible frame log " + file + " to " + aside);
+	deleteOldLogs(file);
+	return create(file, slotCount, maxFrameBytes);
+    }
+
+    private static void fill(FileChannel channel, long size) throws IOException {
+	ByteBuffer zeros = ByteBuffer.allocateDirect(FILL_CHUNK_SIZE);
+	long position = 0;
+	while (position < size) {
+	    zeros.clear();
+	    zeros.limit((int) Math.min(FILL_CHUNK_SIZE, size - position));
+	    while (zeros.hasRemaining()) {
+		position += channel.write(zeros, position);
+	    }
+	}
+	channel.force(false);
+    }
+
+    private static void deleteOldLogs(File file) {
+	String prefix = file.getName() + ".";
+	File[] oldLogs = file.getAbsoluteFile().getParentFile()
+		.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".old"));
+	if (oldLogs == null || oldLogs.length <= MAX_OLD_LOGS) {
+	    return;
+	}
+	// The names end with the time they were moved aside, so they sort oldest first
+	Arrays.sort(oldLogs);
+	for (int i = 0; i < oldLogs.length - MAX_OLD_LOGS; i++) {
+	    if (oldLogs[i].delete()) {
+		System.err.println("Deleted old frame log " + oldLogs[i]);
+	    }
+	}
+    }
+
+    /**
+     * Open an existing frame log for reading.
+     * 
+     * @param file
+     *            The log file
+     * @return The frame log, open for reading
+     * @throws IOException
+     *             If the file cannot be read or is not a frame log
+     */
+    public static FrameLog open(File file) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	ByteBuffer header = raf.getChannel().map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+	if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+	    raf.close();
+	    throw new IOException("Not a frame log: " + file);
+	}
+	return new FrameLog(raf, MapMode.READ_ONLY, header.getInt(SLOT_COUNT_OFFSET),
+		header.getInt(SLOT_SIZE_OFFSET));
+    }
+
+    private FrameLog(RandomAccessFile file, MapMode mode, int slotCount, int slotSize) throws IOException {
+	this.file = file;
+	this.channel = file.getChannel();
+	this.slotCount = slotCount;
+	this.slotSize = slotSize;
+	this.header = channel.map(mode, 0, HEADER_SIZE);
+
+	// A single mapping is limited to 2GB, so map the slots in chunks
+	this.slotsPerChunk = Integer.MAX_VALUE / slotSize;
+	int chunkCount = (slotCount + slotsPerChunk - 1) / slotsPerChunk;
+	this.chunks = new MappedByteBuffer[chunkCount];
+	for (int i = 0; i < chunkCount; i++) {
+	    int slots = Math.min(slotsPerChunk, slotCount - i * slotsPerChunk);
+	    long offset = HEADER_SIZE + (long) i * slotsPerChunk * slotSize;
+	    chunks[i] = channel.map(mode, offset, (long) slots * slotSize);
+	}
+    }
+
+    /**
+     * Append a frame, overwriting the oldest frame if the ring is full. The frame
+     * must be continuous.
+     * 
+     * @param frame
+     *            The frame
+     * @param frameNumber
+     *            The frame number
+     * @param timestamp
+     *            The capture time in milliseconds since the epoch
+     * @throws IOException
+     *             If the frame is larger than a slot
+     */
+    public synchronized void append(Mat frame, int frameNumber, long timestamp) throws IOException {
+	int length = (int) (frame.total() * frame.elemSize());
+	if (length > slotSize - SLOT_HEADER_SIZE) {
+	    throw new IOException("Frame of " + length + " bytes does not fit in a " + slotSize + " byte slot");
+	}
+	if (pixels.length < length) {
+	    pixels = new byte[length];
+	}
+	frame.get(0, 0, pixels);
+
+	long sequence = getWriteCount();
+	ByteBuffer slot = slot((int) (sequence % slotCount));
+
+	// Invalidate the slot while it is rewritten so readers can detect a torn read
+	slot.putLong(SEQUENCE_OFFSET, -1);
+	slot.putInt(FRAME_NUMBER_OFFSET, frameNumber);
+	slot.putLong(TIMESTAMP_OFFSET, timestamp);
+	slot.putInt(ROWS_OFFSET, frame.rows());
+	slot.putInt(COLS_OFFSET, frame.cols());
+	slot.putInt(TYPE_OFFSET, frame.type());
+	slot.putInt(LENGTH_OFFSET, length);
+	slot.position(SLOT_HEADER_SIZE);
+	slot.put(pixels, 0, length);
+	slot.putLong(SEQUENCE_OFFSET, sequence);
+
+	header.putLong(WRITE_COUNT_OFFSET, sequence + 1);
+    }
+
+    /**
+     * Read the frame with the given sequence into the Mat.
+     * 
+     * @param sequence
+     *            The sequence, between {@link #getOldestSequence()} and
+     *            {@link #getWriteCount()} exclusive
+     * @param frame
+     *            The Mat to fill
+     * @return True if the frame was read, false if it has been overwritten
+     */
+    public synchronized boolean read(long sequence, Mat frame) {
+	ByteBuffer slot = slot((int) (sequence % slotCount));
+	if (slot.getLong(SEQUENCE_OFFSET) != sequence) {
+	    return false;
+	}
+	int length = slot.getInt(LENGTH_OFFSET);
+	if (pixels.length < length) {
+	    pixels = new byte[length];
+	}
+	slot.position(SLOT_HEADER_SIZE);
+	slot.get(pixels, 0, length);
+	if (slot.getLong(SEQUENCE_OFFSET) != sequence) {
+	    return false;
+	}
+	frame.create(slot.getInt(ROWS_OFFSET), slot.getInt(COLS_OFFSET), slot.getInt(TYPE_OFFSET));
+	frame.put(0, 0, pixels);
+	return true;
+    }
+
+    /**
+     * Return the frame number stored with the given sequence.
+     * 
+     * @param sequence
+     *            The sequence
+     * @return The frame number
+     */
+    public int getFrameNumber(long sequence) {
+	return slot((int) (sequence % slotCount)).getInt(FRAME_NUMBER_OFFSET);
+    }
+
+    /**
+     * Return the timestamp stored with the given sequence.
+     * 
+     * @param sequence
+     *            The sequence
+     * @return The capture time in milliseconds since the epoch
+     */
+    public long getTimestamp(long sequence) {
+	return slot((int) (sequence % slotCount)).getLong(TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Return the number of frames written since the log was created. This is
+     * also the sequence the next frame will be written with.
+     * 
+     * @return The number of frames written
+     */
+    public long getWriteCount() {
+	return header.getLong(WRITE_COUNT_OFFSET);
+    }
+
+    /**
+     * Return the sequence of the oldest frame still held in the ring.
+     * 
+     * @return The oldest sequence
+     */
+    public long getOldestSequence() {
+	return Math.max(0, getWriteCount() - slotCount);
+    }
+
+    /**
+     * Find the first frame with a frame number greater than or equal to the given
+     * one.
+     * 
+     * @param frameNumber
+     *            The frame number
+     * @return The sequence of the frame, or the write count if there is none
+     */
+    public long findFrameNumber(int frameNumber) {
+	long low = getOldestSequence();
+	long high = getWriteCount();
+	while (low < high) {
+	    long mid = (low + high) >>> 1;
+	    if (getFrameNumber(mid) < frameNumber) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Find the first frame captured at or after the given time.
+     * 
+     * @param timestamp
+     *            The time in milliseconds since the epoch
+     * @return The sequence of the frame, or the write count if there is none
+     */
+    public long findTimestamp(long timestamp) {
+	long low = getOldestSequence();
+	long high = getWriteCount();
+	while (low < high) {
+	    long mid = (low + high) >>> 1;
+	    if (getTimestamp(mid) < timestamp) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Close the log file.
+     */
+    public synchronized void close() {
+	try {
+	    if (!header.isReadOnly()) {
+		header.force();
+		for (MappedByteBuffer chunk : chunks) {
+		    chunk.force();
+		}
+	    }
+	    file.close();
+	} catch (IOException e) {
+	    System.err.println("Exception closing frame log: " + e);
+	}
+    }
+
+    private ByteBuffer slot(int index) {
+	MappedByteBuffer chunk = chunks[index / slotsPerChunk];
+	int offset = (index % slotsPerChunk) * slotSize;
+	ByteBuffer slot = chunk.duplicate();
+	slot.position(offset);
+	slot.limit(offset + slotSize);
+	return slot.slice();
+    }
+}
@@ -0,0 +1,64 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+
+/**
+ * Records raw frames into a memory-mapped FrameLog. The log is opened when the
+ * first frame arrives: an existing log with matching slots is continued after
+ * its last frame, otherwise a new one is created with slots sized for that
+ * frame.
+ */
+public class FrameLogRecorder implements FrameRecorder {
+
+    private File file;
+    private int slotCount;
+    private FrameLog log;
+
+    /**
+     * Construct a new frame log recorder.
+     * 
+     * @param file
+     *            The log file, continued when recording starts
+     * @param slotCount
+     *            The number of frames the log holds before the oldest are
+     *            overwritten
+     */
+    public FrameLogRecorder(File file, int slotCount) {
+	this.file = file;
+	this.slotCount = slotCount;
+    }
+
+    @Override
+    public void record(Mat frame, int frameNumber) throws IOException {
+	record(frame, frameNumber, System.currentTimeMillis());
+    }
+
+    /**
+     * Record a captured frame with the time it was captured, rather than the
+     * time it reached the recorder.
+     */
+    @Override
+    public void record(CapturedFrame frame, int frameNumber) throws IOException {
+	record(frame.getMat(), frameNumber, frame.getCaptureMillis());
+    }
+
+    private synchronized void record(Mat frame, int frameNumber, long timestamp) throws IOException {
+	if (log == null) {
+	    log = FrameLog.openOrCreate(file, slotCount, (int) (frame.total() * frame.elemSize()));
+	    System.out.println("Opened frame log " + file + " with " + slotCount + " slots at frame "
+		    + log.getWriteCount());
+	}
+	log.append(frame, frameNumber, timestamp);
+    }
+
+    @Override
+    public synchronized void close() {
+	if (log != null) {
+	    log.close();
+	    log = null;
+	}
+    }
+}
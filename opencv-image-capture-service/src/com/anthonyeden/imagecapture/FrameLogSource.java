@@ -0,0 +1,91 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+
+/**
+ * A FrameSource that replays a FrameLog as fast as it is read. The position can
+ * be moved to a frame number or a timestamp, and frames that have been
+ * overwritten by the writer while replaying are skipped.
+ */
+public class FrameLogSource implements FrameSource {
+
+    private FrameLog log;
+    private long position;
+    private int frameNumber;
+    private long timestamp;
+
+    /**
+     * Open the given frame log, positioned at the oldest frame it holds.
+     * 
+     * @param file
+     *            The log file
+     * @throws IOException
+     *             If the log cannot be opened
+     */
+    public FrameLogSource(File file) throws IOException {
+	this.log = FrameLog.open(file);
+	this.position = log.getOldestSequence();
+    }
+
+    /**
+     * Move to the first frame with a frame number greater than or equal to the
+     * given one.
+     * 
+     * @param frameNumber
+     *            The frame number
+     */
+    public void seekToFrame(int frameNumber) {
+	position = log.findFrameNumber(frameNumber);
+    }
+
+    /**
+     * Move to the first frame captured at or after the given time.
+     * 
+     * @param timestamp
+     *            The time in milliseconds since the epoch
+     */
+    public void seekToTime(long timestamp) {
+	position = log.findTimestamp(timestamp);
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+	while (position < log.getWriteCount()) {
+	    long sequence = Math.max(position, log.getOldestSequence());
+	    position = sequence + 1;
+	    if (log.read(sequence, frame)) {
+		frameNumber = log.getFrameNumber(sequence);
+		timestamp = log.getTimestamp(sequence);
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Return the frame number of the last frame read.
+     * 
+     * @return The frame number
+     */
+    public int getFrameNumber() {
+	return frameNumber;
+    }
+
+    /**
+     * Return the capture time of the last frame read.
+     * 
+     * @return The time in milliseconds since the epoch
+     */
+    @Override
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    @Override
+    public void release() {
+	log.close();
+    }
+}
@@ -0,0 +1,43 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+
+/**
+ * Persists frames grabbed by the Service.
+ */
+public interface FrameRecorder {
+
+    /**
+     * Record a frame.
+     * 
+     * @param frame
+     *            The frame to record
+     * @param frameNumber
+     *            The number of the frame, starting at 1
+     * @throws IOException
+     *             If the frame cannot be written
+     */
+    void record(Mat frame, int frameNumber) throws IOException;
+
+    /**
+     * Record a captured frame. Recorders that can store when the frame was
+     * captured override this, the others record the frame alone.
+     * 
+     * @param frame
+     *            The frame to record
+     * @param frameNumber
+     *            The number of the frame, starting at 1
+     * @throws IOException
+     *             If the frame cannot be written
+     */
+    default void record(CapturedFrame frame, int frameNumber) throws IOException {
+	record(frame.getMat(), frameNumber);
+    }
+
+    /**
+     * Flush and close any open output.
+     */
+    void close();
+}
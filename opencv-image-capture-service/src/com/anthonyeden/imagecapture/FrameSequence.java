@@ -0,0 +1,94 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hands out frame numbers that keep increasing across restarts. Rather than
+ * writing the file for every frame, numbers are reserved in blocks: the file
+ * holds the first number after the current block, and is rewritten atomically
+ * when the block runs out. The new value is synced to disk before it is renamed
+ * into place and the directory is synced after, so a reserved block survives a
+ * power loss. After a crash numbering resumes after the reserved
+ * block, so a few numbers may be skipped but none are reused.
+ */
+public class FrameSequence {
+
+    private File file;
+    private int blockSize;
+    private int next;
+    private int reservedUntil;
+
+    /**
+     * Load the sequence from the given file, starting at 1 if it does not exist.
+     * 
+     * @param file
+     *            The file the sequence is persisted in
+     * @param blockSize
+     *            How many numbers to reserve with each write
+     * @throws IOException
+     *             If the file exists but cannot be read
+     */
+    public FrameSequence(File file, int blockSize) throws IOException {
+	this.file = file;
+	this.blockSize = blockSize;
+	this.next = 1;
+	if (file.exists()) {
+	    String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+	    try {
+		this.next = Integer.parseInt(value);
+	    } catch (NumberFormatException e) {
+		throw new IOException("Invalid frame sequence in " + file + ": " + value);
+	    }
+	}
+	this.reservedUntil = next;
+    }
+
+    /**
+     * Return the next frame number, reserving a new block first if needed.
+     * 
+     * @return The frame number
+     * @throws IOException
+     *             If a new block cannot be persisted
+     */
+    public synchronized int next() throws IOException {
+	if (next >= reservedUntil) {
+	    reserve(next + blockSize);
+	}
+	int frameNumber = next;
+	next = next + 1;
+	return frameNumber;
+    }
+
+    private void reserve(int until) throws IOException {
+	File temp = new File(file.getPath() + ".tmp");
+	try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+		StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+	    ByteBuffer value = ByteBuffer.wrap(Integer.toString(until).getBytes(StandardCharsets.UTF_8));
+	    while (value.hasRemaining()) {
+		channel.write(value);
+	    }
+	    channel.force(true);
+	}
+	Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+	syncDirectory(file.getAbsoluteFile().getParentFile());
+	reservedUntil = until;
+    }
+
+    private static void syncDirectory(File directory) {
+	// Directories cannot be opened for syncing on every platform, such as
+	// Windows, where the rename is durable without it
+	try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+	    channel.force(true);
+	} catch (IOException e) {
+	    System.err.println("Exception syncing directory " + directory + ": " + e);
+	}
+    }
+}
@@ -0,0 +1,35 @@
+package com.anthonyeden.imagecapture;
+
+import org.opencv.core.Mat;
+
+/**
+ * A source of frames, such as a camera or a synthetic generator. Reads are
+ * expected to block until the next frame is available.
+ */
+public interface FrameSource {
+
+    /**
+     * Read the next frame into the given Mat.
+     * 
+     * @param frame
+     *            The Mat to fill
+     * @return True if a frame was read
+     */
+    boolean read(Mat frame);
+
+    /**
+     * Return the wall clock time the last frame read was captured. A live source
+     * reads frames as they are captured, so by default this is the current time;
+     * a recording returns the time stored with the frame.
+     * 
+     * @return The capture time in milliseconds since the epoch
+     */
+    default long getTimestamp() {
+	return System.currentTimeMillis();
+    }
+
+    /**
+     * Release any resources held by the source.
+     */
+    void release();
+}
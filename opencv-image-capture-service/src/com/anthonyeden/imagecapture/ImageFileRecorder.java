@@ -0,0 +1,51 @@
+package com.anthonyeden.imagecapture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Mat;
+
+/**
+ * Writes each frame to its own image file named with the frame number.
+ */
+public class ImageFileRecorder implements FrameRecorder {
+
+    private String outputDirectory;
+    private String filePrefix;
+    private String imageType;
+    private RetentionManager retentionManager;
+
+    public ImageFileRecorder(String outputDirectory, String filePrefix, String imageType) {
+	this.outputDirectory = outputDirectory;
+	this.filePrefix = filePrefix;
+	this.imageType = imageType;
+    }
+
+    @Override
+    public void record(Mat frame, int frameNumber) throws IOException {
+	BufferedImage image = Utils.matToBufferedImage(frame);
+	System.out.println("Image acquired: " + image.getWidth(null) + " x " + image.getHeight(null));
+	File outputFile = new File(outputDirectory, filePrefix + frameNumber + "." + imageType);
+	ImageIO.write(image, imageType, outputFile.getAbsoluteFile());
+	if (retentionManager != null) {
+	    retentionManager.fileWritten(outputFile);
+	}
+    }
+
+    /**
+     * Report each file written to the given retention manager.
+     * 
+     * @param retentionManager
+     *            The retention manager, or null
+     */
+    public void setRetentionManager(RetentionManager retentionManager) {
+	this.retentionManager = retentionManager;
+    }
+
+    @Override
+    public void close() {
+    }
+}
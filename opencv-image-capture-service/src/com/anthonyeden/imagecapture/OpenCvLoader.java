@@ -0,0 +1,136 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.opencv.core.Core;
+
+/**
+ * Loads the OpenCV native library once per JVM. The library is looked up in
+ * this order:
+ * 
+ * <ol>
+ * <li>The file named by the <code>opencv.library</code> system property.</li>
+ * <li>The <code>java.library.path</code>, as System.loadLibrary does.</li>
+ * <li>The Linux library bundled in the OpenCV jar the Maven build depends on.
+ * It is extracted once to <code>opencv.cache</code> (by default
+ * <code>~/.cache/opencv</code>) and loaded from there on later starts, rather
+ * than being copied to a temporary file on every start. A cached copy whose size
+ * differs from the bundled library, such as one cut short or left by another
+ * build, is extracted again.</li>
+ * </ol>
+ */
+public class OpenCvLoader {
+
+    private static boolean loaded = false;
+    private static long loadMillis;
+    private static String source;
+
+    /**
+     * Load the OpenCV native library if it has not been loaded yet.
+     * 
+     * @throws UnsatisfiedLinkError
+     *             If the library cannot be found
+     */
+    public static synchronized void load() {
+	if (loaded) {
+	    return;
+	}
+	long start = System.nanoTime();
+	String library = System.getProperty("opencv.library");
+	if (library != null) {
+	    System.load(library);
+	    source = library;
+	} else {
+	    try {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		source = "java.library.path";
+	    } catch (UnsatisfiedLinkError e) {
+		File bundled = extractBundledLibrary();
+		if (bundled == null) {
+		    throw e;
+		}
+		System.load(bundled.getPath());
+		source = bundled.getPath();
+	    }
+	}
+	loadMillis = (System.nanoTime() - start) / 1000000;
+	loaded = true;
+	System.out.println("Loaded OpenCV " + Core.VERSION + " from " + source + " in " + loadMillis + "ms");
+    }
+
+    /**
+     * Return how long loading the native library took.
+     * 
+     * @return The load time in milliseconds, or 0 if not loaded
+     */
+    public static synchronized long getLoadMillis() {
+	return loadMillis;
+    }
+
+    private static File extractBundledLibrary() {
+	String resource = bundledResource();
+	if (resource == null) {
+	    return null;
+	}
+	File cacheDirectory = new File(System.getProperty("opencv.cache",
+		System.getProperty("user.home") + File.separator + ".cache" + File.separator + "opencv"));
+	File cached = new File(cacheDirectory, System.mapLibraryName(Core.NATIVE_LIBRARY_NAME));
+	URL url = OpenCvLoader.class.getResource(resource);
+	if (url == null) {
+	    return null;
+	}
+
+	try {
+	    // The size of a jar entry is read from the jar's directory, so checking
+	    // it costs far less than hashing the library
+	    URLConnection connection = url.openConnection();
+	    long size = connection.getContentLengthLong();
+	    if (size >= 0 && cached.isFile() && cached.length() == size) {
+		return cached;
+	    }
+
+	    // Extract to a temporary file and rename it into place, so another JVM
+	    // never loads a partly written library
+	    Files.createDirectories(cacheDirectory.toPath());
+	    File temp = File.createTempFile(cached.getName(), ".tmp", cacheDirectory);
+	    try (InputStream in = connection.getInputStream()) {
+		long copied = Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		if (size >= 0 && copied != size) {
+		    throw new IOException("Extracted " + copied + " of " + size + " bytes");
+		}
+		Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	    } finally {
+		Files.deleteIfExists(temp.toPath());
+	    }
+	    return cached;
+	} catch (IOException e) {
+	    System.err.println("Failed to extract the bundled OpenCV library: " + e);
+	    return null;
+	}
+    }
+
+    private static String bundledResource() {
+	if (!System.getProperty("os.name").toLowerCase().contains("linux")) {
+	    return null;
+	}
+	String arch = System.getProperty("os.arch");
+	String directory;
+	if (arch.equals("amd64") || arch.equals("x86_64")) {
+	    directory = "x86_64";
+	} else if (arch.equals("aarch64")) {
+	    directory = "ARMv8";
+	} else if (arch.equals("x86") || arch.equals("i386")) {
+	    directory = "x86_32";
+	} else {
+	    return null;
+	}
+	return "/nu/pattern/opencv/linux/" + directory + "/" + System.mapLibraryName(Core.NATIVE_LIBRARY_NAME);
+    }
+}
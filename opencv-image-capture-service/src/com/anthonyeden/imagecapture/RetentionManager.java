@@ -0,0 +1,142 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the recorded files in the output directory within a maximum total size,
+ * number of files and age by deleting the oldest ones in the background.
+ * 
+ * The directory is listed once when the manager starts. After that the
+ * recorders report each file they finish through {@link #fileWritten(File)}, so
+ * no directory scan happens while recording. A limit of zero or less disables
+ * that limit.
+ */
+public class RetentionManager {
+
+    public static int DELETE_BATCH_SIZE = 256;
+
+    private File directory;
+    private String filePrefix;
+    private long maxBytes;
+    private int maxFiles;
+    private long maxAgeMillis;
+
+    private Deque<File> files = new ArrayDeque<>();
+    private Deque<Long> sizes = new ArrayDeque<>();
+    private Deque<Long> times = new ArrayDeque<>();
+    private long totalBytes = 0;
+    private ScheduledExecutorService timer;
+
+    /**
+     * Construct a new retention manager.
+     * 
+     * @param directory
+     *            The output directory
+     * @param filePrefix
+     *            Only files starting with this prefix are managed
+     * @param maxBytes
+     *            The maximum total size of the managed files
+     * @param maxFiles
+     *            The maximum number of managed files
+     * @param maxAgeMillis
+     *            The maximum age of a managed file
+     */
+    public RetentionManager(File directory, String filePrefix, long maxBytes, int maxFiles, long maxAgeMillis) {
+	this.directory = directory;
+	this.filePrefix = filePrefix;
+	this.maxBytes = maxBytes;
+	this.maxFiles = maxFiles;
+	this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Load the existing files and start enforcing the limits at the given
+     * interval.
+     * 
+     * @param intervalMillis
+     *            The delay between enforcement runs
+     */
+    public void start(long intervalMillis) {
+	File[] existing = directory.listFiles((dir, name) -> name.startsWith(filePrefix));
+	if (existing != null) {
+	    Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+	    for (File file : existing) {
+		add(file, file.length(), file.lastModified());
+	    }
+	}
+	System.out.println("Retention loaded " + files.size() + " files, " + totalBytes + " bytes");
+
+	this.timer = Executors.newSingleThreadScheduledExecutor();
+	this.timer.scheduleWithFixedDelay(this::enforce, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop enforcing the limits.
+     */
+    public void stop() {
+	if (timer != null) {
+	    timer.shutdown();
+	}
+    }
+
+    /**
+     * Record that a file has been written and is now subject to retention. Files
+     * must be reported in the order they were written.
+     * 
+     * @param file
+     *            The file
+     */
+    public void fileWritten(File file) {
+	add(file, file.length(), System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the oldest files until all limits are met, in batches so that the
+     * lock is not held while deleting.
+     */
+    public void enforce() {
+	List<File> batch = nextBatch();
+	while (!batch.isEmpty()) {
+	    for (File file : batch) {
+		if (!file.delete() && file.exists()) {
+		    System.err.println("Failed to delete " + file);
+		}
+	    }
+	    System.out.println("Retention deleted " + batch.size() + " files");
+	    batch = nextBatch();
+	}
+    }
+
+    private synchronized void add(File file, long size, long time) {
+	files.addLast(file);
+	sizes.addLast(size);
+	times.addLast(time);
+	totalBytes = totalBytes + size;
+    }
+
+    private synchronized List<File> nextBatch() {
+	List<File> batch = new ArrayList<>();
+	long oldestAllowed = System.currentTimeMillis() - maxAgeMillis;
+	while (batch.size() < DELETE_BATCH_SIZE && !files.isEmpty()) {
+	    boolean overBytes = maxBytes > 0 && totalBytes > maxBytes;
+	    boolean overFiles = maxFiles > 0 && files.size() > maxFiles;
+	    boolean tooOld = maxAgeMillis > 0 && times.peekFirst() < oldestAllowed;
+	    if (!overBytes && !overFiles && !tooOld) {
+		break;
+	    }
+	    batch.add(files.removeFirst());
+	    totalBytes = totalBytes - sizes.removeFirst();
+	    times.removeFirst();
+	}
+	return batch;
+    }
+}
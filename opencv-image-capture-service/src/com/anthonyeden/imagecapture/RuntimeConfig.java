@@ -0,0 +1,99 @@
+package com.anthonyeden.imagecapture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Core;
+
+/**
+ * Coordinates OpenCV's internal thread pool with the Java threads that call
+ * into OpenCV. OpenCV parallelizes many kernels over its own pool, which by
+ * default is as large as the machine. When several Java threads each run a
+ * pipeline, for example one per stream or one per batch worker, both pools
+ * compete for the same CPUs. The CPUs are instead split so that the Java
+ * workers times the OpenCV threads per call does not exceed them.
+ * 
+ * OpenCV has one pool and one IPP setting per process, shared by every stream
+ * in it. The split therefore only sizes that pool: threads cannot be pinned to
+ * CPUs or given a separate pool per stream. Streams that need to be isolated
+ * from each other have to run in separate processes, for example each started
+ * with <code>taskset</code> and its own <code>opencv.cpus</code>.
+ * 
+ * The settings are read from system properties:
+ * <code>opencv.cpus</code> (the CPUs to use, by default all of them),
+ * <code>opencv.threads</code> (OpenCV threads per call, by default the CPUs
+ * divided by the Java workers) and <code>opencv.useIPP</code> (whether the
+ * Intel IPP kernels are used where OpenCV was built with them, true by
+ * default). The SIMD instruction sets OpenCV dispatches to can only be limited
+ * before the library loads, with the <code>OPENCV_CPU_DISABLE</code>
+ * environment variable, for example <code>OPENCV_CPU_DISABLE=AVX2,AVX</code>.
+ */
+public class RuntimeConfig {
+
+    public static int CPUS = Integer.getInteger("opencv.cpus", Runtime.getRuntime().availableProcessors());
+    public static int OPENCV_THREADS = Integer.getInteger("opencv.threads", 0);
+    public static boolean USE_IPP = Boolean.parseBoolean(System.getProperty("opencv.useIPP", "true"));
+
+    private static int javaWorkers = 0;
+    private static int openCvThreads = 0;
+
+    /**
+     * Configure OpenCV for the given number of Java threads running pipelines
+     * concurrently. The OpenCV settings are global to the process, so this is
+     * called once by the entry point that owns the worker threads.
+     * 
+     * @param workers
+     *            The number of Java threads calling into OpenCV at once
+     */
+    public static synchronized void apply(int workers) {
+	javaWorkers = Math.max(1, workers);
+	openCvThreads = OPENCV_THREADS > 0 ? OPENCV_THREADS : Math.max(1, CPUS / javaWorkers);
+	Core.setNumThreads(openCvThreads);
+	Core.setUseIPP(USE_IPP);
+    }
+
+    /**
+     * Return the number of Java workers to start when none was requested.
+     * 
+     * @param requested
+     *            The requested number of workers, or 0 or less for the default
+     * @return The number of workers
+     */
+    public static int workers(int requested) {
+	return requested > 0 ? requested : CPUS;
+    }
+
+    /**
+     * Return the effective settings, as reported by OpenCV after apply.
+     * 
+     * @return The settings by name, in a stable order
+     */
+    public static synchronized Map<String, Object> settings() {
+	Map<String, Object> settings = new LinkedHashMap<>();
+	settings.put("cpus", CPUS);
+	settings.put("java_workers", javaWorkers);
+	settings.put("opencv_threads", Core.getNumThreads());
+	settings.put("opencv_threads_requested", openCvThreads);
+	settings.put("opencv_cpus", Core.getNumberOfCPUs());
+	settings.put("opencv_ipp", Core.useIPP() ? Core.getIppVersion() : "off");
+	String cpuDisable = System.getenv("OPENCV_CPU_DISABLE");
+	settings.put("opencv_cpu_disable", cpuDisable == null ? "none" : cpuDisable);
+	return settings;
+    }
+
+    /**
+     * Return the effective settings on one line.
+     * 
+     * @return The settings as name=value pairs
+     */
+    public static String describe() {
+	StringBuilder description = new StringBuilder();
+	for (Map.Entry<String, Object> setting : settings().entrySet()) {
+	    if (description.length() > 0) {
+		description.append(' ');
+	    }
+	    description.append(setting.getKey()).append('=').append(setting.getValue());
+	}
+	return description.toString();
+    }
+}
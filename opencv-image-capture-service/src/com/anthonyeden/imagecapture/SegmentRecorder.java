@@ -0,0 +1,156 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoWriter;
+
+/**
+ * Appends frames to MJPEG encoded AVI segment files instead of writing one
+ * image file per frame. A new segment is started when the current one reaches
+ * the maximum size or has been open for the maximum duration, so the output
+ * directory holds a few large files written sequentially.
+ * 
+ * Segments are named with the prefix followed by the number of the first frame
+ * they contain.
+ * 
+ * The frame rate stored in the container only sets the playback speed. The
+ * MJPEG writer refuses rates below {@link #MIN_CONTAINER_FPS}, so frames
+ * captured more slowly than that are stored at the minimum and play back
+ * faster than real time: at a capture rate of 0.2 FPS, five seconds of capture
+ * play in a fifth of a second.
+ */
+public class SegmentRecorder implements FrameRecorder {
+
+    public static String SEGMENT_TYPE = "avi";
+    public static double MIN_CONTAINER_FPS = 1;
+
+    private String outputDirectory;
+    private String filePrefix;
+    private double fps;
+    private long maxBytes;
+    private long maxMillis;
+    private RetentionManager retentionManager;
+
+    private VideoWriter writer;
+    private File segmentFile;
+    private long segmentStartTime;
+    private int segmentFrames;
+
+    /**
+     * Construct a new segment recorder.
+     * 
+     * @param outputDirectory
+     *            The directory segments are written to
+     * @param filePrefix
+     *            The segment file name prefix
+     * @param fps
+     *            The capture frame rate, stored in the container as the
+     *            playback rate if it is at least MIN_CONTAINER_FPS
+     * @param maxBytes
+     *            The size at which a segment is rotated
+     * @param maxMillis
+     *            The age at which a segment is rotated
+     */
+    public SegmentRecorder(String outputDirectory, String filePrefix, double fps, long maxBytes, long maxMillis) {
+	this.outputDirectory = outputDirectory;
+	this.filePrefix = filePrefix;
+	this.fps = Math.max(MIN_CONTAINER_FPS, fps);
+	this.maxBytes = maxBytes;
+	this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public synchronized void record(Mat frame, int frameNumber) throws IOException {
+	if (writer != null && shouldRotate()) {
+	    close();
+	}
+	if (writer == null) {
+	    open(frame, frameNumber);
+	}
+	writer.write(frame);
+	segmentFrames = segmentFrames + 1;
+    }
+
+    @Override
+    public synchronized void close() {
+	if (writer != null) {
+	    writer.release();
+	    System.out.println("Closed segment " + segmentFile.getName() + " with " + segmentFrames + " frames");
+	    writer = null;
+	    if (retentionManager != null) {
+		retentionManager.fileWritten(segmentFile);
+	    }
+	}
+    }
+
+    /**
+     * Report each segment to the given retention manager when it is closed.
+     * 
+     * @param retentionManager
+     *            The retention manager, or null
+     */
+    public void setRetentionManager(RetentionManager retentionManager) {
+	this.retentionManager = retentionManager;
+    }
+
+    private boolean shouldRotate() {
+	if (System.currentTimeMillis() - segmentStartTime >= maxMillis) {
+	    return true;
+	}
+	return segmentFile.length() >= maxBytes;
+    }
+
+    private void open(Mat frame, int frameNumber) throws IOException {
+	segmentFile = new File(outputDirectory, filePrefix + frameNumber + "." + SEGMENT_TYPE).getAbsoluteFile();
+	writer = new VideoWriter(segmentFile.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), fps, frame.size(),
+		frame.channels() > 1);
+	if (!writer.isOpened()) {
+	    writer = null;
+	    throw new IOException("Cannot open segment " + segmentFile);
+	}
+	segmentStartTime = System.currentTimeMillis();
+	segmentFrames = 0;
+	System.out.println("Opened segment " + segmentFile.getName());
+    }
+
+    /**
+     * Check that a segment can be written at a capture rate below one frame per
+     * second by recording synthetic frames into a temporary directory. Exits
+     * with status 1 if no segment is written.
+     * 
+     * @param args
+     *            Optionally, the capture frame rate, 0.2 by default
+     * @throws IOException
+     *             If the temporary directory cannot be created
+     */
+    public static void main(String[] args) throws IOException {
+	OpenCvLoader.load();
+	double fps = args.length > 0 ? Double.parseDouble(args[0]) : 0.2;
+	File directory = Files.createTempDirectory("segments").toFile();
+	SegmentRecorder recorder = new SegmentRecorder(directory.getPath(), "segment-", fps, Long.MAX_VALUE,
+		Long.MAX_VALUE);
+	SyntheticFrameSource source = new SyntheticFrameSource(320, 240, 30);
+	Mat frame = new Mat();
+	try {
+	    for (int i = 1; i <= 5; i++) {
+		source.read(frame);
+		recorder.record(frame, i);
+	    }
+	} finally {
+	    recorder.close();
+	    frame.release();
+	}
+	long written = new File(directory, "segment-1." + SEGMENT_TYPE).length();
+	System.out.println("Wrote " + written + " bytes at a capture rate of " + fps + " FPS");
+	for (File file : directory.listFiles()) {
+	    file.delete();
+	}
+	directory.delete();
+	if (written == 0) {
+	    System.exit(1);
+	}
+    }
+}
@@ -1,15 +1,12 @@
 package com.anthonyeden.imagecapture;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import javax.imageio.ImageIO;
-
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.videoio.VideoCapture;
 
@@ -19,9 +16,66 @@ public class Service {
     public static String FILE_PREFIX = "frame-";
     public static double FPS = 0.2;
 
-    public static void main(String[] args) throws InterruptedException {
+    /**
+     * When true, frames are grabbed by a CaptureLoop instead of a scheduled
+     * executor. The loop runs on a platform thread, since reading from the
+     * camera is a JNI call that would pin a virtual thread's carrier.
+     */
+    public static boolean CAPTURE_LOOP = Boolean.getBoolean("imagecapture.captureLoop");
+
+    /**
+     * How frames are recorded: "png" writes one image file per frame, "segments"
+     * appends frames to rolling MJPEG segment files and "framelog" writes raw
+     * frames to a memory-mapped ring for replay.
+     */
+    public static String RECORDING_MODE = System.getProperty("imagecapture.recordingMode", "png");
+    public static String SEGMENT_PREFIX = "segment-";
+    public static long SEGMENT_MAX_BYTES = 256L * 1024 * 1024;
+    public static long SEGMENT_MAX_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static String FRAME_LOG_NAME = "frames.log";
+    public static int FRAME_LOG_SLOTS = 4096;
+
+    /**
+     * Frame numbers are persisted here so that numbering resumes after a restart
+     * instead of overwriting earlier frames.
+     */
+    public static String SEQUENCE_FILE_NAME = ".frame-sequence";
+    public static int SEQUENCE_BLOCK_SIZE = 100;
+
+    /**
+     * Limits on the recorded files kept in the output directory. Zero disables a
+     * limit. Since retention deletes any file with the recording prefix, the
+     * output directory must be given explicitly for limits to be set.
+     */
+    public static long RETENTION_MAX_BYTES = Long.getLong("imagecapture.retention.maxBytes", 0);
+    public static int RETENTION_MAX_FILES = Integer.getInteger("imagecapture.retention.maxFiles", 0);
+    public static long RETENTION_MAX_AGE_MILLIS = Long.getLong("imagecapture.retention.maxAgeMillis", 0);
+    public static long RETENTION_INTERVAL_MILLIS = 10000;
+
+    /**
+     * When greater than zero, frames are also served over HTTP on this port as
+     * /snapshot.jpg and an MJPEG stream at /stream.mjpg. The server only listens
+     * on the loopback interface unless another bind address is given.
+     */
+    public static int HTTP_PORT = Integer.getInteger("imagecapture.httpPort", 0);
+    public static String HTTP_BIND = System.getProperty("imagecapture.httpBind", "127.0.0.1");
+    public static int HTTP_JPEG_QUALITY = 80;
+
+    /**
+     * How long shutdown waits for a frame being written before closing the
+     * recorder.
+     */
+    public static long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The ID recorded with every frame from the camera, to tell cameras apart in
+     * traces.
+     */
+    public static String SOURCE_ID = System.getProperty("imagecapture.sourceId", "camera-0");
+
+    public static void main(String[] args) throws InterruptedException, IOException {
 	// Load the opencv native library
-	System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	OpenCvLoader.load();
 
 	// Start the image service
 	Service service = new Service(outputDirectory(args));
@@ -32,44 +86,122 @@ public class Service {
 	String outputDirectory = null;
 	if (args.length > 0) {
 	    outputDirectory = args[0];
-	} else {
-	    outputDirectory = System.getProperty("user.home");
 	}
 	return outputDirectory;
     }
 
     private String outputDirectory;
+    private boolean explicitOutputDirectory;
+    private FrameRecorder recorder;
+    private FrameSequence sequence;
+    private RetentionManager retention;
+    private FrameBroadcaster broadcaster;
+    private StreamingServer streamingServer;
+    private long captureSequence = 0;
 
+    /**
+     * Construct a new service.
+     * 
+     * @param outputDirectory
+     *            The directory frames are recorded to, or null to record to the
+     *            user's home directory
+     */
     public Service(String outputDirectory) {
-	this.outputDirectory = outputDirectory;
+	this.explicitOutputDirectory = outputDirectory != null;
+	this.outputDirectory = outputDirectory != null ? outputDirectory : System.getProperty("user.home");
+    }
+
+    private void startRecording() throws IOException {
+	sequence = new FrameSequence(new File(outputDirectory, SEQUENCE_FILE_NAME), SEQUENCE_BLOCK_SIZE);
+	if ("segments".equals(RECORDING_MODE)) {
+	    retention = createRetentionManager(SEGMENT_PREFIX);
+	    SegmentRecorder segmentRecorder = new SegmentRecorder(outputDirectory, SEGMENT_PREFIX, FPS,
+		    SEGMENT_MAX_BYTES, SEGMENT_MAX_MILLIS);
+	    segmentRecorder.setRetentionManager(retention);
+	    recorder = segmentRecorder;
+	} else if ("framelog".equals(RECORDING_MODE)) {
+	    // The frame log is a fixed size ring, so it needs no retention
+	    recorder = new FrameLogRecorder(new File(outputDirectory, FRAME_LOG_NAME), FRAME_LOG_SLOTS);
+	} else {
+	    retention = createRetentionManager(FILE_PREFIX);
+	    ImageFileRecorder imageRecorder = new ImageFileRecorder(outputDirectory, FILE_PREFIX, IMAGE_OUTPUT_TYPE);
+	    imageRecorder.setRetentionManager(retention);
+	    recorder = imageRecorder;
+	}
+	if (retention != null) {
+	    retention.start(RETENTION_INTERVAL_MILLIS);
+	}
+	if (HTTP_PORT > 0) {
+	    broadcaster = new FrameBroadcaster(HTTP_JPEG_QUALITY);
+	    // Until the first frame arrives a snapshot waits for it, so allow for the
+	    // capture interval
+	    streamingServer = new StreamingServer(broadcaster,
+		    Math.max(StreamingServer.DEFAULT_SNAPSHOT_WAIT_MILLIS, (long) (2000 / FPS)));
+	    streamingServer.start(HTTP_BIND, HTTP_PORT);
+	}
+    }
+
+    private RetentionManager createRetentionManager(String filePrefix) throws IOException {
+	if (RETENTION_MAX_BYTES <= 0 && RETENTION_MAX_FILES <= 0 && RETENTION_MAX_AGE_MILLIS <= 0) {
+	    return null;
+	}
+	// Retention deletes every file with the prefix, so never let it loose on
+	// the home directory just because no output directory was given
+	if (!explicitOutputDirectory) {
+	    throw new IOException("Retention limits need an explicit output directory");
+	}
+	return new RetentionManager(new File(outputDirectory), filePrefix, RETENTION_MAX_BYTES, RETENTION_MAX_FILES,
+		RETENTION_MAX_AGE_MILLIS);
+    }
+
+    private void stopRecording() {
+	recorder.close();
+	if (retention != null) {
+	    retention.stop();
+	}
+	if (streamingServer != null) {
+	    streamingServer.stop();
+	}
     }
 
-    public void serve() throws InterruptedException {
+    public void serve() throws InterruptedException, IOException {
+	// One capture thread calls into OpenCV
+	RuntimeConfig.apply(1);
+	System.out.println("OpenCV runtime: " + RuntimeConfig.describe());
+	startRecording();
 	VideoCapture capture = new VideoCapture();
 	capture.open(0);
 	if (capture.isOpened()) {
-	    Runnable frameGrabber = new Runnable() {
-		private int frameNumber = 1;
+	    if (CAPTURE_LOOP) {
+		serveWithCaptureLoop(capture);
+		return;
+	    }
 
+	    Runnable frameGrabber = new Runnable() {
 		@Override
 		public void run() {
-		    try {
-			Mat frame = grabFrame(capture);
-			BufferedImage image = Utils.matToBufferedImage(frame);
-			System.out.println("Image acquired: " + image.getWidth(null) + " x " + image.getHeight(null));
-			File outputFile = new File(outputDirectory,
-				FILE_PREFIX + frameNumber + "." + IMAGE_OUTPUT_TYPE);
-			ImageIO.write(image, IMAGE_OUTPUT_TYPE, outputFile.getAbsoluteFile());
-			frameNumber = frameNumber + 1;
-		    } catch (IOException e) {
-			System.out.println("Failed to render frame " + frameNumber + ": " + e.getMessage());
-		    }
+		    CapturedFrame frame = grabFrame(capture);
+		    writeFrame(frame);
+		    frame.getMat().release();
 		}
 	    };
 
 	    long frameGrabSchedule = (long) ((1f / FPS) * 1000f);
 	    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
 	    timer.scheduleAtFixedRate(frameGrabber, 0, frameGrabSchedule, TimeUnit.MILLISECONDS);
+	    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+		// Cancel the schedule and let a frame being written finish before the
+		// recorder is closed, so the last segment is not cut off mid-frame
+		timer.shutdown();
+		try {
+		    if (!timer.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+			System.err.println("Frame grabber still running after " + SHUTDOWN_TIMEOUT_MILLIS + "ms");
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+		stopRecording();
+	    }));
 	    while (!timer.isShutdown()) {
 		Thread.sleep(1000);
 	    }
@@ -78,12 +210,63 @@ public class Service {
 	}
     }
 
-    private Mat grabFrame(VideoCapture capture) {
+    private void serveWithCaptureLoop(VideoCapture capture) throws InterruptedException {
+	Consumer<Mat> frameWriter = new Consumer<Mat>() {
+	    @Override
+	    public void accept(Mat frame) {
+		// The loop hands the frame over right after reading it
+		captureSequence = captureSequence + 1;
+		writeFrame(new CapturedFrame(processFrame(frame), SOURCE_ID, captureSequence));
+	    }
+	};
+
+	CaptureLoop loop = new CaptureLoop(new VideoCaptureSource(capture), FPS, frameWriter,
+		CaptureLoop.platformThreads());
+	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+	    try {
+		loop.stop();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    stopRecording();
+	}));
+	loop.start();
+	while (loop.isRunning()) {
+	    Thread.sleep(1000);
+	}
+    }
+
+    private void writeFrame(CapturedFrame frame) {
+	if (frame.getMat().empty()) {
+	    return;
+	}
+	if (broadcaster != null) {
+	    long publishStart = TraceRing.start();
+	    broadcaster.publish(frame.getMat());
+	    TraceRing.span("publish", frame, publishStart);
+	}
+	int frameNumber = 0;
+	try {
+	    long recordStart = TraceRing.start();
+	    frameNumber = sequence.next();
+	    recorder.record(frame, frameNumber);
+	    TraceRing.span("record", frame, recordStart);
+	} catch (IOException e) {
+	    System.out.println("Failed to render frame " + frameNumber + ": " + e.getMessage());
+	}
+    }
+
+    private CapturedFrame grabFrame(VideoCapture capture) {
 	Mat frame = new Mat();
+	long readStart = TraceRing.start();
+	long captureNanos = System.nanoTime();
+	long captureMillis = System.currentTimeMillis();
 
 	if (capture.isOpened()) {
 	    try {
 		capture.read(frame);
+		captureNanos = System.nanoTime();
+		captureMillis = System.currentTimeMillis();
 		if (!frame.empty()) {
 		    frame = processFrame(frame);
 		}
@@ -92,7 +275,10 @@ public class Service {
 	    }
 	}
 
-	return frame;
+	captureSequence = captureSequence + 1;
+	CapturedFrame capturedFrame = new CapturedFrame(frame, SOURCE_ID, captureSequence, captureNanos, captureMillis);
+	TraceRing.span("read", capturedFrame, readStart);
+	return capturedFrame;
     }
 
     private Mat processFrame(Mat frame) {
@@ -0,0 +1,250 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server, built on the JDK's HttpServer, that exposes the frames
+ * of a FrameBroadcaster. <code>/snapshot.jpg</code> returns the latest frame,
+ * <code>/stream.mjpg</code> streams frames as
+ * <code>multipart/x-mixed-replace</code> and <code>/metrics</code> returns the
+ * effective RuntimeConfig settings and the number of streaming clients as
+ * plain text, one <code>name value</code> pair per line. <code>/trace</code>
+ * dumps the spans in the TraceRing.
+ * 
+ * Each streaming client is served on its own thread and always sends the newest
+ * frame once its previous write completes, so a slow client skips frames
+ * rather than buffering them, and never slows down capture. Frames are only
+ * encoded when a client asks for one.
+ * 
+ * The server listens on the loopback interface unless it is started with
+ * another bind address.
+ */
+public class StreamingServer {
+
+    public static String BOUNDARY = "frame";
+    public static int MAX_STREAM_CLIENTS = 16;
+    public static long FRAME_WAIT_MILLIS = 1000;
+    public static long DEFAULT_SNAPSHOT_WAIT_MILLIS = 10000;
+
+    private FrameBroadcaster broadcaster;
+    private long snapshotWaitMillis;
+    private HttpServer server;
+    private ExecutorService executor;
+    private Semaphore streamSlots = new Semaphore(MAX_STREAM_CLIENTS);
+    private volatile boolean running = false;
+
+    /**
+     * Construct a new streaming server that waits up to
+     * DEFAULT_SNAPSHOT_WAIT_MILLIS for the first frame.
+     * 
+     * @param broadcaster
+     *            The broadcaster frames are served from
+     */
+    public StreamingServer(FrameBroadcaster broadcaster) {
+	this(broadcaster, DEFAULT_SNAPSHOT_WAIT_MILLIS);
+    }
+
+    /**
+     * Construct a new streaming server.
+     * 
+     * @param broadcaster
+     *            The broadcaster frames are served from
+     * @param snapshotWaitMillis
+     *            How long a snapshot request waits when no frame has been
+     *            published yet, which should be longer than the capture
+     *            interval
+     */
+    public StreamingServer(FrameBroadcaster broadcaster, long snapshotWaitMillis) {
+	this.broadcaster = broadcaster;
+	this.snapshotWaitMillis = snapshotWaitMillis;
+    }
+
+    /**
+     * Start serving on the given port of the loopback interface.
+     * 
+     * @param port
+     *            The port, or 0 for any free port
+     * @throws IOException
+     *             If the server cannot be bound
+     */
+    public void start(int port) throws IOException {
+	start(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    /**
+     * Start serving on the given address and port.
+     * 
+     * @param bindAddress
+     *            The address to listen on, such as 0.0.0.0 for every interface
+     * @param port
+     *            The port, or 0 for any free port
+     * @throws IOException
+     *             If the server cannot be bound
+     */
+    public void start(String bindAddress, int port) throws IOException {
+	server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+	server.createContext("/snapshot.jpg", this::handleSnapshot);
+	server.createContext("/stream.mjpg", this::handleStream);
+	server.createContext("/metrics", this::handleMetrics);
+	server.createContext("/trace", this::handleTrace);
+	executor = Executors.newCachedThreadPool();
+	server.setExecutor(executor);
+	running = true;
+	server.start();
+	System.out.println("Streaming server listening on " + bindAddress + " port " + getPort());
+    }
+
+    /**
+     * Stop the server and disconnect any streaming clients.
+     */
+    public void stop() {
+	running = false;
+	if (server != null) {
+	    server.stop(0);
+	    executor.shutdownNow();
+	}
+    }
+
+    /**
+     * Return the port the server is bound to.
+     * 
+     * @return The port
+     */
+    public int getPort() {
+	return server.getAddress().getPort();
+    }
+
+    /**
+     * Return the address the server is bound to.
+     * 
+     * @return The address
+     */
+    public InetSocketAddress getAddress() {
+	return server.getAddress();
+    }
+
+    private void handleSnapshot(HttpExchange exchange) throws IOException {
+	try {
+	    FrameBroadcaster.EncodedFrame frame = broadcaster.latest();
+	    if (frame == null) {
+		frame = broadcaster.next(snapshotWaitMillis);
+	    }
+	    if (frame == null) {
+		exchange.sendResponseHeaders(503, -1);
+		return;
+	    }
+	    exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+	    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+	    exchange.sendResponseHeaders(200, frame.jpeg.length);
+	    exchange.getResponseBody().write(frame.jpeg);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    exchange.sendResponseHeaders(503, -1);
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+	try {
+	    StringBuilder metrics = new StringBuilder();
+	    for (Map.Entry<String, Object> setting : RuntimeConfig.settings().entrySet()) {
+		metrics.append(setting.getKey()).append(' ').append(setting.getValue()).append('\n');
+	    }
+	    metrics.append("stream_clients ").append(MAX_STREAM_CLIENTS - streamSlots.availablePermits()).append('\n');
+	    metrics.append("frame_subscribers ").append(broadcaster.getSubscriberCount()).append('\n');
+	    byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+	    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+	    exchange.sendResponseHeaders(200, body.length);
+	    exchange.getResponseBody().write(body);
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private void handleTrace(HttpExchange exchange) throws IOException {
+	try {
+	    StringWriter trace = new StringWriter();
+	    TraceRing.get().dump(trace);
+	    byte[] body = trace.toString().getBytes(StandardCharsets.UTF_8);
+	    exchange.getResponseHeaders().set("Content-Type", "text/tab-separated-values; charset=utf-8");
+	    exchange.sendResponseHeaders(200, body.length);
+	    exchange.getResponseBody().write(body);
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+	if (!streamSlots.tryAcquire()) {
+	    exchange.sendResponseHeaders(503, -1);
+	    exchange.close();
+	    return;
+	}
+	boolean subscribed = false;
+	try {
+	    exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+	    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+	    exchange.sendResponseHeaders(200, 0);
+	    long seenVersion = broadcaster.subscribe();
+	    subscribed = true;
+	    OutputStream out = exchange.getResponseBody();
+	    while (running) {
+		FrameBroadcaster.EncodedFrame frame = broadcaster.awaitNewer(seenVersion, FRAME_WAIT_MILLIS);
+		if (frame == null) {
+		    continue;
+		}
+		String partHeader = "--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+			+ frame.jpeg.length + "\r\n\r\n";
+		out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+		out.write(frame.jpeg);
+		out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		seenVersion = frame.version;
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	} catch (IOException e) {
+	    // The client went away
+	} finally {
+	    if (subscribed) {
+		broadcaster.unsubscribe();
+	    }
+	    streamSlots.release();
+	    exchange.close();
+	}
+    }
+
+    /**
+     * Serve frames from a SyntheticFrameSource, for trying the server out on
+     * localhost without a camera.
+     * 
+     * @param args
+     *            Optionally, the port and address to listen on
+     * @throws Exception
+     *             If the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+	OpenCvLoader.load();
+	RuntimeConfig.apply(1);
+	int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+	FrameBroadcaster broadcaster = new FrameBroadcaster(80);
+	StreamingServer server = new StreamingServer(broadcaster);
+	server.start(args.length > 1 ? args[1] : InetAddress.getLoopbackAddress().getHostAddress(), port);
+	CaptureLoop loop = new CaptureLoop(new SyntheticFrameSource(640, 480, 30), 30, broadcaster::publish,
+		CaptureLoop.platformThreads());
+	loop.start();
+    }
+}
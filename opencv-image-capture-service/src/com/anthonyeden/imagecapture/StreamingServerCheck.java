@@ -0,0 +1,160 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.opencv.core.Mat;
+
+/**
+ * Checks a StreamingServer on an ephemeral port: that it is bound to the
+ * loopback address by default, that <code>/snapshot.jpg</code> returns the kept
+ * frame at once even though no new frame is published, that
+ * <code>/stream.mjpg</code> streams JPEG parts and that <code>/metrics</code>
+ * counts the streaming client. Exits with status 1 if any check fails.
+ */
+public class StreamingServerCheck {
+
+    public static long SNAPSHOT_PROMPT_MILLIS = 500;
+    public static long PUBLISH_INTERVAL_MILLIS = 50;
+    public static int STREAM_PARTS = 3;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws Exception {
+	OpenCvLoader.load();
+	RuntimeConfig.apply(1);
+
+	// A keep interval longer than the check, so the snapshot must be served
+	// from the one frame kept before it
+	FrameBroadcaster broadcaster = new FrameBroadcaster(80, 60000);
+	StreamingServer server = new StreamingServer(broadcaster, 2000);
+	SyntheticFrameSource source = new SyntheticFrameSource(320, 240, 30);
+	Mat frame = new Mat();
+	Thread publisher = null;
+	try {
+	    server.start(0);
+	    check("bound to loopback", server.getAddress().getAddress().isLoopbackAddress());
+	    String base = "http://127.0.0.1:" + server.getPort();
+
+	    source.read(frame);
+	    broadcaster.publish(frame);
+	    long start = System.nanoTime();
+	    HttpURLConnection snapshot = open(base + "/snapshot.jpg");
+	    byte[] jpeg = readFully(snapshot.getInputStream());
+	    long snapshotMillis = (System.nanoTime() - start) / 1000000;
+	    check("snapshot status", snapshot.getResponseCode() == 200);
+	    check("snapshot is a JPEG", isJpeg(jpeg));
+	    check("snapshot served in " + snapshotMillis + " ms", snapshotMillis < SNAPSHOT_PROMPT_MILLIS);
+
+	    publisher = new Thread(() -> {
+		Mat published = new Mat();
+		try {
+		    while (!Thread.currentThread().isInterrupted()) {
+			source.read(published);
+			broadcaster.publish(published);
+			Thread.sleep(PUBLISH_INTERVAL_MILLIS);
+		    }
+		} catch (InterruptedException e) {
+		    // Done
+		} finally {
+		    published.release();
+		}
+	    });
+	    publisher.start();
+
+	    HttpURLConnection stream = open(base + "/stream.mjpg");
+	    DataInputStream in = new DataInputStream(stream.getInputStream());
+	    int parts = 0;
+	    int jpegParts = 0;
+	    while (parts < STREAM_PARTS) {
+		int length = readPartLength(in);
+		byte[] part = new byte[length];
+		in.readFully(part);
+		parts = parts + 1;
+		if (isJpeg(part)) {
+		    jpegParts = jpegParts + 1;
+		}
+	    }
+	    check("stream parts are JPEGs", jpegParts == STREAM_PARTS);
+
+	    String metrics = new String(readFully(open(base + "/metrics").getInputStream()), StandardCharsets.UTF_8);
+	    check("metrics count the stream client", metrics.contains("stream_clients 1\n"));
+	    stream.disconnect();
+	} finally {
+	    if (publisher != null) {
+		publisher.interrupt();
+		publisher.join();
+	    }
+	    server.stop();
+	    frame.release();
+	    source.release();
+	}
+	System.exit(passed ? 0 : 1);
+    }
+
+    private static void check(String name, boolean ok) {
+	System.out.println((ok ? "PASS " : "FAIL ") + name);
+	passed = passed && ok;
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+	HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+	connection.setConnectTimeout(5000);
+	connection.setReadTimeout(5000);
+	return connection;
+    }
+
+    private static boolean isJpeg(byte[] data) {
+	return data.length > 2 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+	try {
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    byte[] buffer = new byte[8192];
+	    int read;
+	    while ((read = in.read(buffer)) != -1) {
+		out.write(buffer, 0, read);
+	    }
+	    return out.toByteArray();
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Read the headers of the next multipart part and return its length.
+     */
+    private static int readPartLength(DataInputStream in) throws IOException {
+	int length = -1;
+	String line;
+	while ((line = readLine(in)) != null) {
+	    if (line.isEmpty() && length >= 0) {
+		return length;
+	    }
+	    if (line.startsWith("Content-Length: ")) {
+		length = Integer.parseInt(line.substring("Content-Length: ".length()));
+	    }
+	}
+	throw new IOException("Stream ended");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+	StringBuilder line = new StringBuilder();
+	int c;
+	while ((c = in.read()) != -1) {
+	    if (c == '\n') {
+		return line.toString();
+	    }
+	    if (c != '\r') {
+		line.append((char) c);
+	    }
+	}
+	return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.anthonyeden.imagecapture;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A FrameSource that generates frames at a fixed rate, blocking on each read
+ * until the next frame is due just like a camera would. Each frame has a
+ * square drawn at a position that moves with the frame count, so consecutive
+ * frames are not identical.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    private int width;
+    private int height;
+    private long periodNanos;
+    private long nextFrameTime;
+    private long frameCount = 0;
+
+    /**
+     * Construct a new synthetic source producing BGR frames.
+     * 
+     * @param width
+     *            The frame width
+     * @param height
+     *            The frame height
+     * @param fps
+     *            The rate at which frames become available
+     */
+    public SyntheticFrameSource(int width, int height, double fps) {
+	this.width = width;
+	this.height = height;
+	this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+	this.nextFrameTime = System.nanoTime();
+    }
+
+    @Override
+    public synchronized boolean read(Mat frame) {
+	long delay = nextFrameTime - System.nanoTime();
+	if (delay > 0) {
+	    try {
+		TimeUnit.NANOSECONDS.sleep(delay);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return false;
+	    }
+	}
+	nextFrameTime = Math.max(nextFrameTime + periodNanos, System.nanoTime());
+
+	frame.create(height, width, CvType.CV_8UC3);
+	Imgproc.rectangle(frame, new Point(0, 0), new Point(width, height), new Scalar(32, 32, 32), -1);
+	int size = Math.min(width, height) / 4;
+	int x = (int) (frameCount * 4 % Math.max(1, width - size));
+	Imgproc.rectangle(frame, new Point(x, (height - size) / 2), new Point(x + size, (height + size) / 2),
+		new Scalar(0, 200, 0), -1);
+	frameCount = frameCount + 1;
+	return true;
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,159 @@
+package com.anthonyeden.imagecapture;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory ring of trace spans, one per pipeline stage per frame, used to
+ * find where the time between capturing a frame and acting on it is spent.
+ * Spans are written into preallocated arrays without locking or allocation,
+ * and the oldest are overwritten once the ring is full. The ring is only
+ * written to when tracing is enabled with the <code>pipeline.trace</code>
+ * system property, and can be dumped at any time.
+ * 
+ * A dump taken while spans are being written may include a span that is only
+ * partly written. This is accepted to keep recording cheap.
+ */
+public class TraceRing {
+
+    public static boolean ENABLED = Boolean.getBoolean("pipeline.trace");
+    public static int CAPACITY = capacity(Integer.getInteger("pipeline.traceSize", 8192));
+
+    private static TraceRing instance;
+
+    /**
+     * Return the ring shared by the whole process.
+     * 
+     * @return The ring
+     */
+    public static synchronized TraceRing get() {
+	if (instance == null) {
+	    instance = new TraceRing(CAPACITY);
+	}
+	return instance;
+    }
+
+    private static int capacity(int requested) {
+	if (requested < 1) {
+	    System.err.println("Ignoring pipeline.traceSize " + requested + ", it must be at least 1");
+	    return 8192;
+	}
+	return requested;
+    }
+
+    /**
+     * Return the start time of a span.
+     * 
+     * @return System.nanoTime if tracing is enabled, otherwise 0
+     */
+    public static long start() {
+	return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a span of the given frame that started at the given time and ends
+     * now, if tracing is enabled.
+     * 
+     * @param stage
+     *            The name of the stage
+     * @param frame
+     *            The frame the stage worked on
+     * @param startNanos
+     *            The value returned by start when the stage began
+     */
+    public static void span(String stage, CapturedFrame frame, long startNanos) {
+	if (ENABLED) {
+	    get().record(stage, frame.getSourceId(), frame.getSequence(), frame.getCaptureNanos(), startNanos,
+		    System.nanoTime());
+	}
+    }
+
+    private final int capacity;
+    private final String[] stages;
+    private final String[] sources;
+    private final long[] sequences;
+    private final long[] captureTimes;
+    private final long[] startTimes;
+    private final long[] endTimes;
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * Construct a new trace ring.
+     * 
+     * @param capacity
+     *            The number of spans kept, at least 1
+     * @throws IllegalArgumentException
+     *             If the capacity is less than 1
+     */
+    public TraceRing(int capacity) {
+	if (capacity < 1) {
+	    throw new IllegalArgumentException("Trace ring capacity must be at least 1: " + capacity);
+	}
+	this.capacity = capacity;
+	this.stages = new String[capacity];
+	this.sources = new String[capacity];
+	this.sequences = new long[capacity];
+	this.captureTimes = new long[capacity];
+	this.startTimes = new long[capacity];
+	this.endTimes = new long[capacity];
+    }
+
+    /**
+     * Record a span.
+     * 
+     * @param stage
+     *            The name of the stage
+     * @param sourceId
+     *            The source of the frame
+     * @param sequence
+     *            The sequence number of the frame
+     * @param captureNanos
+     *            When the frame was captured
+     * @param startNanos
+     *            When the stage began
+     * @param endNanos
+     *            When the stage ended
+     */
+    public void record(String stage, String sourceId, long sequence, long captureNanos, long startNanos,
+	    long endNanos) {
+	int slot = (int) (written.getAndIncrement() % capacity);
+	stages[slot] = stage;
+	sources[slot] = sourceId;
+	sequences[slot] = sequence;
+	captureTimes[slot] = captureNanos;
+	startTimes[slot] = startNanos;
+	endTimes[slot] = endNanos;
+    }
+
+    /**
+     * Return the number of spans recorded since the ring was created, including
+     * those that have been overwritten.
+     * 
+     * @return The number of spans
+     */
+    public long getWrittenCount() {
+	return written.get();
+    }
+
+    /**
+     * Write the spans in the ring, oldest first, as tab separated lines of the
+     * source, frame sequence, stage, the start of the stage in microseconds
+     * after the capture and its duration in microseconds.
+     * 
+     * @param out
+     *            Where to write the spans
+     */
+    public void dump(Writer out) {
+	PrintWriter writer = new PrintWriter(out);
+	long end = written.get();
+	long first = Math.max(0, end - capacity);
+	writer.println("source\tsequence\tstage\tstart_us\tduration_us");
+	for (long i = first; i < end; i++) {
+	    int slot = (int) (i % capacity);
+	    writer.println(sources[slot] + "\t" + sequences[slot] + "\t" + stages[slot] + "\t"
+		    + (startTimes[slot] - captureTimes[slot]) / 1000 + "\t" + (endTimes[slot] - startTimes[slot]) / 1000);
+	}
+	writer.flush();
+    }
+}
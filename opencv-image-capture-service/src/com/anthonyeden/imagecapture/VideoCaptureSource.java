@@ -0,0 +1,26 @@
+package com.anthonyeden.imagecapture;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * A FrameSource backed by an opened VideoCapture.
+ */
+public class VideoCaptureSource implements FrameSource {
+
+    private VideoCapture capture;
+
+    public VideoCaptureSource(VideoCapture capture) {
+	this.capture = capture;
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+	return capture.isOpened() && capture.read(frame);
+    }
+
+    @Override
+    public void release() {
+	capture.release();
+    }
+}
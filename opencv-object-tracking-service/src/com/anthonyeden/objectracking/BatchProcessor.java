@@ -0,0 +1,362 @@
+package com.anthonyeden.objectracking;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+
+import com.anthonyeden.imagecapture.CapturedFrame;
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.RuntimeConfig;
+
+/**
+ * Runs the ObjectTracker pipeline offline over directories of frames written
+ * by the image capture service and over video files, and writes the result of
+ * every frame as CSV or JSON lines. There is no frame grab schedule: frames are
+ * decoded and processed on all cores and the results are written in order by
+ * a single writer.
+ * 
+ * Each worker thread has its own tracker, so frames are processed
+ * independently without prediction or CamShift. A frame the tracker fails on
+ * is written as an empty result, marked as failed, and counted. Every row says
+ * whether the frame was decoded and whether it failed, so an unreadable or
+ * failed frame is never mistaken for a frame without the object.
+ */
+public class BatchProcessor {
+
+    public static int QUEUE_SIZE = 256;
+
+    private static final Pattern FRAME_NUMBER = Pattern.compile("(\\d+)\\.[^.]+$");
+
+    /**
+     * The result of processing one frame of an input.
+     */
+    private static class FrameResult {
+	String source;
+	long frameNumber;
+	TrackingResult result;
+	boolean failed;
+    }
+
+    private Scalar hsvMinValues;
+    private Scalar hsvMaxValues;
+    private String format;
+    private int threads;
+
+    private ExecutorService workers;
+    private ThreadLocal<ObjectTracker> trackers;
+    private BlockingQueue<Future<FrameResult>> pending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private volatile boolean reading;
+    private volatile Throwable readFailure;
+    private AtomicLong failedFrames = new AtomicLong();
+
+    /**
+     * Construct a new batch processor.
+     * 
+     * @param hsvMinValues
+     *            The minimum HSV values
+     * @param hsvMaxValues
+     *            The maximum HSV values
+     * @param format
+     *            "csv" or "jsonl"
+     * @param threads
+     *            The number of worker threads
+     */
+    public BatchProcessor(Scalar hsvMinValues, Scalar hsvMaxValues, String format, int threads) {
+	this.hsvMinValues = hsvMinValues;
+	this.hsvMaxValues = hsvMaxValues;
+	this.format = format;
+	this.threads = threads;
+    }
+
+    /**
+     * Process all frames of the given inputs and write the results.
+     * 
+     * @param inputs
+     *            Directories of frame images and video files
+     * @param output
+     *            Where to write the results
+     * @return The number of frames processed
+     * @throws IOException
+     *             If the inputs cannot be read or the results cannot be written
+     * @throws InterruptedException
+     *             If interrupted while processing
+     */
+    public long process(List<File> inputs, Writer output) throws IOException, InterruptedException {
+	workers = Executors.newFixedThreadPool(threads);
+	trackers = ThreadLocal.withInitial(() -> new ObjectTracker(0, 0, hsvMinValues, hsvMaxValues));
+	reading = true;
+
+	Thread reader = new Thread(() -> {
+	    try {
+		for (File input : inputs) {
+		    if (input.isDirectory()) {
+			readDirectory(input);
+		    } else {
+			readVideo(input);
+		    }
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    } catch (Throwable e) {
+		readFailure = e;
+	    } finally {
+		reading = false;
+	    }
+	}, "batch-reader");
+	reader.start();
+
+	PrintWriter writer = new PrintWriter(output);
+	if ("csv".equals(format)) {
+	    writer.println("source,frame,decoded,failed,present,direction,rects,x,y,width,height");
+	}
+	long frames = 0;
+	try {
+	    while (reading || !pending.isEmpty()) {
+		Future<FrameResult> next = pending.poll(100, TimeUnit.MILLISECONDS);
+		if (next != null) {
+		    write(writer, next.get());
+		    frames++;
+		}
+	    }
+	    if (readFailure != null) {
+		throw new IOException("Failed to read the inputs", readFailure);
+	    }
+	} catch (ExecutionException e) {
+	    throw new IOException("Failed to process frame", e.getCause());
+	} finally {
+	    reader.interrupt();
+	    workers.shutdownNow();
+	    writer.flush();
+	}
+	return frames;
+    }
+
+    private void readDirectory(File directory) throws InterruptedException {
+	File[] files = directory.listFiles((dir, name) -> FRAME_NUMBER.matcher(name).find());
+	if (files == null) {
+	    System.err.println("Cannot list " + directory);
+	    return;
+	}
+	Arrays.sort(files, Comparator.comparingLong(BatchProcessor::frameNumber).thenComparing(File::getName));
+	for (File file : files) {
+	    // Decoding is as expensive as processing, so it is done by the workers
+	    submit(() -> {
+		Mat frame = Imgcodecs.imread(file.getPath());
+		try {
+		    return track(frame, file.getPath(), frameNumber(file));
+		} finally {
+		    frame.release();
+		}
+	    });
+	}
+    }
+
+    private void readVideo(File file) throws InterruptedException {
+	VideoCapture capture = new VideoCapture(file.getPath());
+	if (!capture.isOpened()) {
+	    System.err.println("Cannot open " + file);
+	    return;
+	}
+	try {
+	    long frameNumber = 1;
+	    while (true) {
+		Mat frame = new Mat();
+		if (!capture.read(frame) || frame.empty()) {
+		    frame.release();
+		    break;
+		}
+		long number = frameNumber;
+		submit(() -> {
+		    try {
+			return track(frame, file.getPath(), number);
+		    } finally {
+			frame.release();
+		    }
+		});
+		frameNumber++;
+	    }
+	} finally {
+	    capture.release();
+	}
+    }
+
+    private void submit(Callable<FrameResult> task) throws InterruptedException {
+	// Blocks when the writer falls behind, which bounds the frames in memory
+	pending.put(workers.submit(task));
+    }
+
+    private FrameResult track(Mat frame, String source, long frameNumber) {
+	ObjectTracker tracker = trackers.get();
+	TrackingResult previous = tracker.getLastResult();
+	tracker.processFrame(new CapturedFrame(frame, source, frameNumber));
+	FrameResult frameResult = new FrameResult();
+	frameResult.source = source;
+	frameResult.frameNumber = frameNumber;
+	if (!frame.empty()) {
+	    // The tracker logs and swallows exceptions, leaving the result of the
+	    // worker's previous frame in place
+	    TrackingResult result = tracker.getLastResult();
+	    if (result == previous) {
+		frameResult.failed = true;
+		failedFrames.incrementAndGet();
+		System.err.println("Failed to process frame " + frameNumber + " of " + source);
+	    } else {
+		frameResult.result = result;
+	    }
+	}
+	return frameResult;
+    }
+
+    /**
+     * Return the number of frames the tracker failed on, which are written as
+     * empty results.
+     * 
+     * @return The number of failed frames
+     */
+    public long getFailedFrames() {
+	return failedFrames.get();
+    }
+
+    private void write(PrintWriter writer, FrameResult frameResult) {
+	TrackingResult result = frameResult.result;
+	boolean decoded = result != null || frameResult.failed;
+	boolean present = result != null && result.isObjectPresent();
+	int direction = present ? result.getDirection() : 0;
+	List<Rect> rects = result != null ? result.getRects() : new ArrayList<Rect>();
+	if ("csv".equals(format)) {
+	    Rect largest = null;
+	    for (Rect rect : rects) {
+		if (largest == null || rect.area() > largest.area()) {
+		    largest = rect;
+		}
+	    }
+	    writer.println(csv(frameResult.source) + "," + frameResult.frameNumber + "," + decoded + ","
+		    + frameResult.failed + "," + present + "," + direction
+		    + "," + rects.size() + ","
+		    + (largest == null ? ",,,"
+			    : largest.x + "," + largest.y + "," + largest.width + "," + largest.height));
+	} else {
+	    StringBuilder line = new StringBuilder();
+	    line.append("{\"source\":").append(json(frameResult.source));
+	    line.append(",\"frame\":").append(frameResult.frameNumber);
+	    line.append(",\"decoded\":").append(decoded);
+	    line.append(",\"failed\":").append(frameResult.failed);
+	    line.append(",\"present\":").append(present);
+	    line.append(",\"direction\":").append(direction);
+	    line.append(",\"rects\":[");
+	    for (int i = 0; i < rects.size(); i++) {
+		Rect rect = rects.get(i);
+		line.append(i > 0 ? "," : "").append('[').append(rect.x).append(',').append(rect.y).append(',')
+			.append(rect.width).append(',').append(rect.height).append(']');
+	    }
+	    line.append("]}");
+	    writer.println(line);
+	}
+    }
+
+    private static long frameNumber(File file) {
+	Matcher matcher = FRAME_NUMBER.matcher(file.getName());
+	return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static String csv(String value) {
+	if (value.contains(",") || value.contains("\"")) {
+	    return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+	return value;
+    }
+
+    private static String json(String value) {
+	return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static Scalar parseHsv(String value) {
+	String[] parts = value.split(",");
+	return new Scalar(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+    }
+
+    /**
+     * Run the batch processor.
+     * 
+     * @param args
+     *            Options followed by the directories and video files to process.
+     *            The options are --format csv|jsonl, --output file, --threads n,
+     *            --hsv-min h,s,v and --hsv-max h,s,v.
+     * @throws Exception
+     *             If processing fails
+     */
+    public static void main(String[] args) throws Exception {
+	String format = "csv";
+	String outputFile = null;
+	int threads = RuntimeConfig.workers(0);
+	Scalar hsvMinValues = new Scalar(36, 55, 106);
+	Scalar hsvMaxValues = new Scalar(77, 255, 255);
+	List<File> inputs = new ArrayList<>();
+	for (int i = 0; i < args.length; i++) {
+	    switch (args[i]) {
+	    case "--format":
+		format = args[++i];
+		break;
+	    case "--output":
+		outputFile = args[++i];
+		break;
+	    case "--threads":
+		threads = Integer.parseInt(args[++i]);
+		break;
+	    case "--hsv-min":
+		hsvMinValues = parseHsv(args[++i]);
+		break;
+	    case "--hsv-max":
+		hsvMaxValues = parseHsv(args[++i]);
+		break;
+	    default:
+		inputs.add(new File(args[i]));
+	    }
+	}
+	if (inputs.isEmpty() || !("csv".equals(format) || "jsonl".equals(format))) {
+	    System.err.println("Usage: BatchProcessor [--format csv|jsonl] [--output file] [--threads n]"
+		    + " [--hsv-min h,s,v] [--hsv-max h,s,v] <directory or video>...");
+	    System.exit(1);
+	}
+
+	OpenCvLoader.load();
+	// Split the CPUs between the workers and OpenCV's own pool
+	RuntimeConfig.apply(threads);
+	BatchProcessor processor = new BatchProcessor(hsvMinValues, hsvMaxValues, format, threads);
+	try (Writer output = outputFile == null ? new OutputStreamWriter(System.out) : new FileWriter(outputFile)) {
+	    long start = System.nanoTime();
+	    long frames = processor.process(inputs, output);
+	    double seconds = (System.nanoTime() - start) / 1e9;
+	    System.err.println(String.format("Processed %d frames in %.2fs, %.1f frames/second on %d threads", frames,
+		    seconds, frames / seconds, threads));
+	    if (processor.getFailedFrames() > 0) {
+		System.err.println("Failed on " + processor.getFailedFrames() + " frames");
+	    }
+	    System.err.println("OpenCV runtime: " + RuntimeConfig.describe());
+	}
+    }
+}
@@ -0,0 +1,169 @@
+package com.anthonyeden.objectracking;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * Follows a single object with histogram back projection and CamShift. The
+ * hue histogram of the object is built once when it is locked on to, and each
+ * frame after that only the area around the last known position is converted
+ * to HSV and searched, so there is no full frame morphology or contour
+ * extraction.
+ * 
+ * Pixels whose saturation or value are below the minimums of the tracker's HSV
+ * range are ignored, since their hue is unreliable. When the back projection
+ * inside the tracked window becomes too weak the object is considered lost and
+ * {@link #track(Mat)} returns null until it is locked on to again.
+ */
+public class CamShiftTracker {
+
+    public static int HUE_BINS = 30;
+    public static double SEARCH_MARGIN = 0.5;
+    public static double MIN_BACK_PROJECTION = 25;
+
+    private static final MatOfInt HUE_CHANNEL = new MatOfInt(0);
+    private static final MatOfFloat HUE_RANGE = new MatOfFloat(0, 180);
+
+    private Scalar maskMinValues;
+    private Scalar maskMaxValues;
+    private TermCriteria criteria = new TermCriteria(TermCriteria.EPS | TermCriteria.COUNT, 10, 1);
+
+    private Mat hueHistogram;
+    private Rect window;
+
+    private Mat hsv = new Mat();
+    private Mat mask = new Mat();
+    private Mat backProjection = new Mat();
+
+    /**
+     * Construct a new CamShift tracker.
+     * 
+     * @param hsvMinValues
+     *            The minimum HSV values of the tracker, the saturation and value
+     *            of which are used to ignore unreliable pixels
+     * @param hsvMaxValues
+     *            The maximum HSV values of the tracker
+     */
+    public CamShiftTracker(Scalar hsvMinValues, Scalar hsvMaxValues) {
+	this.maskMinValues = new Scalar(0, hsvMinValues.val[1], hsvMinValues.val[2]);
+	this.maskMaxValues = new Scalar(180, hsvMaxValues.val[1], hsvMaxValues.val[2]);
+    }
+
+    /**
+     * Build the hue model from the given region and start tracking it.
+     * 
+     * @param frame
+     *            The BGR frame
+     * @param region
+     *            The region of the frame covered by the object
+     */
+    public synchronized void lock(Mat frame, Rect region) {
+	Mat roi = frame.submat(region);
+	MatOfInt histogramSize = new MatOfInt(HUE_BINS);
+	try {
+	    Imgproc.cvtColor(roi, hsv, Imgproc.COLOR_BGR2HSV);
+	    Core.inRange(hsv, maskMinValues, maskMaxValues, mask);
+	    Mat histogram = new Mat();
+	    Imgproc.calcHist(Arrays.asList(hsv), HUE_CHANNEL, mask, histogram, histogramSize, HUE_RANGE);
+	    Core.normalize(histogram, histogram, 0, 255, Core.NORM_MINMAX);
+	    unlock();
+	    hueHistogram = histogram;
+	    window = region.clone();
+	} finally {
+	    roi.release();
+	    histogramSize.release();
+	}
+    }
+
+    /**
+     * Return true if an object is being tracked.
+     * 
+     * @return True if locked on to an object
+     */
+    public synchronized boolean isLocked() {
+	return hueHistogram != null;
+    }
+
+    /**
+     * Find the object in the next frame.
+     * 
+     * @param frame
+     *            The BGR frame
+     * @return The bounding rectangle of the object, or null if no object is
+     *         locked or it has been lost
+     */
+    public synchronized List<Rect> track(Mat frame) {
+	if (hueHistogram == null) {
+	    return null;
+	}
+
+	Rect search = expand(window, frame);
+	Mat roi = frame.submat(search);
+	try {
+	    Imgproc.cvtColor(roi, hsv, Imgproc.COLOR_BGR2HSV);
+	    Imgproc.calcBackProject(Arrays.asList(hsv), HUE_CHANNEL, hueHistogram, backProjection, HUE_RANGE, 1);
+	    Core.inRange(hsv, maskMinValues, maskMaxValues, mask);
+	    Core.bitwise_and(backProjection, mask, backProjection);
+
+	    Rect local = new Rect(window.x - search.x, window.y - search.y, window.width, window.height);
+	    Video.CamShift(backProjection, local, criteria);
+	    if (local.width <= 0 || local.height <= 0) {
+		unlock();
+		return null;
+	    }
+
+	    Mat tracked = backProjection.submat(local);
+	    double strength = Core.mean(tracked).val[0];
+	    tracked.release();
+	    if (strength < MIN_BACK_PROJECTION) {
+		unlock();
+		return null;
+	    }
+
+	    window = new Rect(local.x + search.x, local.y + search.y, local.width, local.height);
+	    return Collections.singletonList(window.clone());
+	} finally {
+	    roi.release();
+	}
+    }
+
+    /**
+     * Stop tracking and release the hue model and the working buffers. The
+     * tracker can still be locked on again afterwards.
+     */
+    public synchronized void release() {
+	unlock();
+	hsv.release();
+	mask.release();
+	backProjection.release();
+    }
+
+    private void unlock() {
+	if (hueHistogram != null) {
+	    hueHistogram.release();
+	    hueHistogram = null;
+	}
+	window = null;
+    }
+
+    private Rect expand(Rect rect, Mat frame) {
+	int marginX = (int) (rect.width * SEARCH_MARGIN);
+	int marginY = (int) (rect.height * SEARCH_MARGIN);
+	int x = Math.max(0, rect.x - marginX);
+	int y = Math.max(0, rect.y - marginY);
+	int right = Math.min(frame.width(), rect.x + rect.width + marginX);
+	int bottom = Math.min(frame.height(), rect.y + rect.height + marginY);
+	return new Rect(x, y, right - x, bottom - y);
+    }
+}
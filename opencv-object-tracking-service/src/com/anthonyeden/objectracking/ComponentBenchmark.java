@@ -0,0 +1,124 @@
+package com.anthonyeden.objectracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import com.anthonyeden.imagecapture.OpenCvLoader;
+
+/**
+ * Compares finding bounding boxes with findContours, as ObjectTracker does by
+ * default, against ComponentDetector on masks cluttered with a growing number
+ * of random blobs. Before timing, it checks that both produce the same boxes
+ * for every mask, counting only outer contours since connected components do
+ * not report holes.
+ */
+public class ComponentBenchmark {
+
+    public static int[] BLOB_COUNTS = { 10, 100, 1000 };
+    public static int MASKS = 50;
+    public static int ITERATIONS = 5;
+
+    public static void main(String[] args) {
+	OpenCvLoader.load();
+	Random random = new Random(42);
+	ComponentDetector detector = new ComponentDetector(0);
+
+	System.out.println("blobs\tcontours-ms\tcomponents-ms\tmismatched-masks");
+	for (int blobs : BLOB_COUNTS) {
+	    List<Mat> masks = new ArrayList<>();
+	    for (int i = 0; i < MASKS; i++) {
+		masks.add(clutteredMask(random, blobs));
+	    }
+
+	    int mismatched = 0;
+	    for (Mat mask : masks) {
+		if (!contourBoxes(mask, true).equals(componentBoxes(detector, mask))) {
+		    mismatched++;
+		}
+	    }
+
+	    long contourNanos = 0;
+	    long componentNanos = 0;
+	    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+		for (Mat mask : masks) {
+		    long start = System.nanoTime();
+		    contourBoxes(mask, false);
+		    contourNanos += System.nanoTime() - start;
+
+		    start = System.nanoTime();
+		    detector.detect(mask);
+		    componentNanos += System.nanoTime() - start;
+		}
+	    }
+
+	    int runs = MASKS * ITERATIONS;
+	    System.out.println(String.format("%d\t%.3f\t%.3f\t%d", blobs, contourNanos / 1e6 / runs,
+		    componentNanos / 1e6 / runs, mismatched));
+	    for (Mat mask : masks) {
+		mask.release();
+	    }
+	}
+    }
+
+    private static Mat clutteredMask(Random random, int blobs) {
+	Mat mask = Mat.zeros(480, 640, CvType.CV_8UC1);
+	for (int i = 0; i < blobs; i++) {
+	    int x = random.nextInt(640);
+	    int y = random.nextInt(480);
+	    int size = 2 + random.nextInt(30);
+	    if (random.nextBoolean()) {
+		Imgproc.rectangle(mask, new Point(x, y), new Point(x + size, y + size), new Scalar(255), -1);
+	    } else {
+		Imgproc.circle(mask, new Point(x, y), size / 2, new Scalar(255), -1);
+	    }
+	}
+	return mask;
+    }
+
+    /**
+     * The boxes found the way ObjectTracker finds them, optionally only for outer
+     * contours, sorted so they can be compared.
+     */
+    private static List<String> contourBoxes(Mat mask, boolean outerOnly) {
+	List<MatOfPoint> contours = new ArrayList<>();
+	Mat hierarchy = new Mat();
+	// findContours modifies its input in OpenCV 3.3
+	Mat input = mask.clone();
+	Imgproc.findContours(input, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+	List<String> boxes = new ArrayList<>();
+	int[] links = new int[4];
+	for (int i = 0; i < contours.size(); i++) {
+	    Rect rect = Imgproc.boundingRect(contours.get(i));
+	    hierarchy.get(0, i, links);
+	    if (!outerOnly || links[3] < 0) {
+		boxes.add(rect.x + "," + rect.y + "," + rect.width + "," + rect.height);
+	    }
+	    contours.get(i).release();
+	}
+	input.release();
+	hierarchy.release();
+	Collections.sort(boxes);
+	return boxes;
+    }
+
+    private static List<String> componentBoxes(ComponentDetector detector, Mat mask) {
+	List<String> boxes = new ArrayList<>();
+	int count = detector.detect(mask);
+	for (int i = 0; i < count; i++) {
+	    boxes.add(detector.getX(i) + "," + detector.getY(i) + "," + detector.getWidth(i) + ","
+		    + detector.getHeight(i));
+	}
+	Collections.sort(boxes);
+	return boxes;
+    }
+}
@@ -0,0 +1,131 @@
+package com.anthonyeden.objectracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the blobs in a binary mask with connectedComponentsWithStats. This is
+ * an alternative to findContours when only bounding boxes are needed: the
+ * boxes, areas and centroids of all blobs come back in a single stats buffer,
+ * without a native point list per blob.
+ * 
+ * The results are kept in primitive arrays that are reused between calls and
+ * indexed from 0 to {@link #getCount()}. Blobs smaller than the minimum area
+ * are left out.
+ */
+public class ComponentDetector {
+
+    private int minArea;
+
+    private Mat labels = new Mat();
+    private Mat stats = new Mat();
+    private Mat centroids = new Mat();
+    private int[] statsBuffer = new int[0];
+    private double[] centroidsBuffer = new double[0];
+
+    private int count = 0;
+    private int[] boxes = new int[0];
+    private int[] areas = new int[0];
+    private double[] centers = new double[0];
+
+    /**
+     * Construct a new component detector.
+     * 
+     * @param minArea
+     *            The smallest blob, in pixels, to report
+     */
+    public ComponentDetector(int minArea) {
+	this.minArea = minArea;
+    }
+
+    /**
+     * Find the blobs in the given mask.
+     * 
+     * @param mask
+     *            An 8 bit single channel mask, where non-zero pixels belong to
+     *            blobs
+     * @return The number of blobs found
+     */
+    public int detect(Mat mask) {
+	int labelCount = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+
+	// Label 0 is the background
+	int components = labelCount - 1;
+	int statsLength = labelCount * Imgproc.CC_STAT_MAX;
+	if (statsBuffer.length < statsLength) {
+	    statsBuffer = new int[statsLength];
+	    centroidsBuffer = new double[labelCount * 2];
+	}
+	if (boxes.length < components * 4) {
+	    boxes = new int[components * 4];
+	    areas = new int[components];
+	    centers = new double[components * 2];
+	}
+	stats.get(0, 0, statsBuffer);
+	centroids.get(0, 0, centroidsBuffer);
+
+	count = 0;
+	for (int label = 1; label < labelCount; label++) {
+	    int offset = label * Imgproc.CC_STAT_MAX;
+	    int area = statsBuffer[offset + Imgproc.CC_STAT_AREA];
+	    if (area < minArea) {
+		continue;
+	    }
+	    boxes[count * 4] = statsBuffer[offset + Imgproc.CC_STAT_LEFT];
+	    boxes[count * 4 + 1] = statsBuffer[offset + Imgproc.CC_STAT_TOP];
+	    boxes[count * 4 + 2] = statsBuffer[offset + Imgproc.CC_STAT_WIDTH];
+	    boxes[count * 4 + 3] = statsBuffer[offset + Imgproc.CC_STAT_HEIGHT];
+	    areas[count] = area;
+	    centers[count * 2] = centroidsBuffer[label * 2];
+	    centers[count * 2 + 1] = centroidsBuffer[label * 2 + 1];
+	    count++;
+	}
+	return count;
+    }
+
+    public int getMinArea() {
+	return minArea;
+    }
+
+    public int getCount() {
+	return count;
+    }
+
+    public int getX(int index) {
+	return boxes[index * 4];
+    }
+
+    public int getY(int index) {
+	return boxes[index * 4 + 1];
+    }
+
+    public int getWidth(int index) {
+	return boxes[index * 4 + 2];
+    }
+
+    public int getHeight(int index) {
+	return boxes[index * 4 + 3];
+    }
+
+    public int getArea(int index) {
+	return areas[index];
+    }
+
+    public double getCentroidX(int index) {
+	return centers[index * 2];
+    }
+
+    public double getCentroidY(int index) {
+	return centers[index * 2 + 1];
+    }
+
+    /**
+     * Release the native buffers.
+     */
+    public void release() {
+	labels.release();
+	stats.release();
+	centroids.release();
+    }
+}
@@ -0,0 +1,71 @@
+package com.anthonyeden.objectracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+
+/**
+ * Compares the cost per frame of the ObjectTracker detection modes on the same
+ * synthetic sequence, and how often each mode agrees with the default HSV mask
+ * and contour pipeline on presence and direction.
+ */
+public class DetectionBenchmark {
+
+    public static int FRAMES = 300;
+    public static int WARMUP_FRAMES = 30;
+    public static int FRAME_WIDTH = 640;
+    public static int FRAME_HEIGHT = 480;
+
+    public static void main(String[] args) {
+	OpenCvLoader.load();
+
+	SyntheticFrameSource source = new SyntheticFrameSource(FRAME_WIDTH, FRAME_HEIGHT, 1e6);
+	List<Mat> frames = new ArrayList<>();
+	for (int i = 0; i < FRAMES; i++) {
+	    Mat frame = new Mat();
+	    source.read(frame);
+	    frames.add(frame);
+	}
+
+	int[] reference = run("hsv-contours", new ObjectTracker(), frames, null);
+
+	ObjectTracker camShift = new ObjectTracker();
+	camShift.setCamShiftTracking(true);
+	run("camshift", camShift, frames, reference);
+
+	ObjectTracker components = new ObjectTracker();
+	components.setComponentDetector(new ComponentDetector(0));
+	run("components", components, frames, reference);
+    }
+
+    private static int[] run(String mode, ObjectTracker tracker, List<Mat> frames, int[] reference) {
+	for (int i = 0; i < WARMUP_FRAMES; i++) {
+	    tracker.processFrame(frames.get(i));
+	}
+
+	int[] states = new int[frames.size()];
+	long start = System.nanoTime();
+	for (int i = 0; i < frames.size(); i++) {
+	    tracker.processFrame(frames.get(i));
+	    states[i] = tracker.isObjectPresent() ? tracker.getDirection() : ObjectTracker.OBJECT_NOT_PRESENT;
+	}
+	double millisPerFrame = (System.nanoTime() - start) / 1e6 / frames.size();
+
+	String agreement = "";
+	if (reference != null) {
+	    int matches = 0;
+	    for (int i = 0; i < states.length; i++) {
+		if (states[i] == reference[i]) {
+		    matches++;
+		}
+	    }
+	    agreement = String.format(", agrees with hsv-contours on %.1f%% of frames", 100.0 * matches / states.length);
+	}
+	System.out.println(String.format("%s: %.3f ms/frame%s", mode, millisPerFrame, agreement));
+	return states;
+    }
+}
@@ -0,0 +1,207 @@
+package com.anthonyeden.objectracking;
+
+import org.opencv.core.Rect;
+
+/**
+ * Smooths and predicts the position of the tracked object so a direction can
+ * be given at any time, not just when a frame has been processed.
+ * 
+ * The center of the object is estimated with a constant velocity Kalman filter
+ * on each axis. The direction is decided from the predicted bounding
+ * rectangle with hysteresis: once centered, the object has to move a margin
+ * past the center target before a turn is reported, and once turning it has to
+ * overlap the target by the margin before it is reported centered. This stops
+ * the direction flickering when the object sits at the edge of the target.
+ * The hysteresis state only moves when a frame is observed, so asking for the
+ * direction never changes the answer a later caller gets.
+ * 
+ * When no object is observed the prediction coasts for a limited time and then
+ * the object is reported as not present.
+ */
+public class DirectionPredictor {
+
+    public static double DEFAULT_PROCESS_NOISE = 20000;
+    public static double DEFAULT_MEASUREMENT_NOISE = 25;
+    public static int DEFAULT_HYSTERESIS = 8;
+    public static long DEFAULT_MAX_COAST_NANOS = 500000000L;
+
+    /**
+     * A constant velocity Kalman filter along one axis.
+     */
+    private static class Axis {
+	private double position;
+	private double velocity;
+	private double p00, p01, p10, p11;
+
+	void reset(double measured, double measurementNoise) {
+	    position = measured;
+	    velocity = 0;
+	    p00 = measurementNoise;
+	    p01 = 0;
+	    p10 = 0;
+	    p11 = measurementNoise * 100;
+	}
+
+	void update(double measured, double dt, double processNoise, double measurementNoise) {
+	    // Predict
+	    position = position + velocity * dt;
+	    double dt2 = dt * dt;
+	    double q00 = processNoise * dt2 * dt2 / 4;
+	    double q01 = processNoise * dt2 * dt / 2;
+	    double q11 = processNoise * dt2;
+	    double n00 = p00 + dt * (p10 + p01) + dt2 * p11 + q00;
+	    double n01 = p01 + dt * p11 + q01;
+	    double n10 = p10 + dt * p11 + q01;
+	    double n11 = p11 + q11;
+
+	    // Correct
+	    double innovation = measured - position;
+	    double s = n00 + measurementNoise;
+	    double k0 = n00 / s;
+	    double k1 = n10 / s;
+	    position = position + k0 * innovation;
+	    velocity = velocity + k1 * innovation;
+	    p00 = (1 - k0) * n00;
+	    p01 = (1 - k0) * n01;
+	    p10 = n10 - k1 * n00;
+	    p11 = n11 - k1 * n01;
+	}
+
+	double predict(double dt) {
+	    return position + velocity * dt;
+	}
+    }
+
+    private double processNoise;
+    private double measurementNoise;
+    private int hysteresis;
+    private long maxCoastNanos;
+
+    private Axis x = new Axis();
+    private Axis y = new Axis();
+    private int width;
+    private int height;
+    private boolean tracking = false;
+    private long lastUpdate;
+    private int direction = 0;
+
+    /**
+     * Construct a new predictor with the default tuning.
+     */
+    public DirectionPredictor() {
+	this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE, DEFAULT_HYSTERESIS, DEFAULT_MAX_COAST_NANOS);
+    }
+
+    /**
+     * Construct a new predictor.
+     * 
+     * @param processNoise
+     *            The variance of the object's acceleration, in pixels per second
+     *            squared
+     * @param measurementNoise
+     *            The variance of the measured center, in pixels
+     * @param hysteresis
+     *            The margin, in pixels, used to change between centered and
+     *            turning
+     * @param maxCoastNanos
+     *            How long to keep predicting without an observation
+     */
+    public DirectionPredictor(double processNoise, double measurementNoise, int hysteresis, long maxCoastNanos) {
+	this.processNoise = processNoise;
+	this.measurementNoise = measurementNoise;
+	this.hysteresis = hysteresis;
+	this.maxCoastNanos = maxCoastNanos;
+    }
+
+    /**
+     * Update the estimate with the bounding rectangle observed in a frame, and
+     * the direction decided for that frame.
+     * 
+     * @param boundingRect
+     *            The observed bounding rectangle
+     * @param timeNanos
+     *            The time of the frame, from System.nanoTime()
+     * @param centerTarget
+     *            The center target rectangle of the frame
+     */
+    public synchronized void observe(Rect boundingRect, long timeNanos, Rect centerTarget) {
+	double centerX = boundingRect.x + boundingRect.width / 2.0;
+	double centerY = boundingRect.y + boundingRect.height / 2.0;
+	if (!isTracking(timeNanos)) {
+	    x.reset(centerX, measurementNoise);
+	    y.reset(centerY, measurementNoise);
+	} else {
+	    // Carry the state through the predicted movement since the last frame,
+	    // as if the direction had been asked for just before this one
+	    direction = decide(timeNanos, centerTarget);
+	    double dt = (timeNanos - lastUpdate) / 1e9;
+	    x.update(centerX, dt, processNoise, measurementNoise);
+	    y.update(centerY, dt, processNoise, measurementNoise);
+	}
+	width = boundingRect.width;
+	height = boundingRect.height;
+	lastUpdate = timeNanos;
+	tracking = true;
+	direction = decide(timeNanos, centerTarget);
+    }
+
+    /**
+     * Return true if the object has been observed recently enough to predict
+     * where it is.
+     * 
+     * @param timeNanos
+     *            The current time, from System.nanoTime()
+     * @return True if the object is considered present
+     */
+    public synchronized boolean isTracking(long timeNanos) {
+	return tracking && timeNanos - lastUpdate <= maxCoastNanos;
+    }
+
+    /**
+     * Return the predicted bounding rectangle of the object.
+     * 
+     * @param timeNanos
+     *            The time to predict for, from System.nanoTime()
+     * @return The predicted rectangle
+     */
+    public synchronized Rect predict(long timeNanos) {
+	double dt = (timeNanos - lastUpdate) / 1e9;
+	int centerX = (int) Math.round(x.predict(dt));
+	int centerY = (int) Math.round(y.predict(dt));
+	return new Rect(centerX - width / 2, centerY - height / 2, width, height);
+    }
+
+    /**
+     * Decide the direction to turn from the predicted position of the object,
+     * starting from the direction decided for the last observed frame. This does
+     * not change any state.
+     * 
+     * @param timeNanos
+     *            The time to decide for, from System.nanoTime()
+     * @param centerTarget
+     *            The center target rectangle
+     * @return 1 for right, 0 for stop, -1 for left
+     */
+    public synchronized int direction(long timeNanos, Rect centerTarget) {
+	if (!isTracking(timeNanos)) {
+	    return direction;
+	}
+	return decide(timeNanos, centerTarget);
+    }
+
+    private int decide(long timeNanos, Rect centerTarget) {
+	Rect predicted = predict(timeNanos);
+
+	// Make it harder to leave the current state than to stay in it
+	int margin = direction == 0 ? -hysteresis : hysteresis;
+	int left = centerTarget.x + margin;
+	int right = centerTarget.x + centerTarget.width - margin;
+	if (predicted.x + predicted.width >= left && predicted.x <= right) {
+	    return 0;
+	} else if (predicted.x > right) {
+	    return 1;
+	} else {
+	    return -1;
+	}
+    }
+}
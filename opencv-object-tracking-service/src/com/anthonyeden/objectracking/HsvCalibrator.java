@@ -0,0 +1,227 @@
+package com.anthonyeden.objectracking;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.anthonyeden.imagecapture.FrameLogSource;
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.RuntimeConfig;
+
+/**
+ * Derives HSV bounds for the ObjectTracker from sample regions that contain
+ * the object. Each sample adds the hue, saturation and value histograms of its
+ * region to running totals, and the bounds are taken from low and high
+ * percentiles of those totals, so a few stray pixels do not widen the range.
+ * 
+ * Samples are blurred the same way as frames in the tracker before they are
+ * converted to HSV. Hue is not treated as circular, so objects whose hue wraps
+ * around 0 (red) will get a range covering most of the hue circle.
+ */
+public class HsvCalibrator {
+
+    public static final int HUE_BINS = 180;
+    public static final int SATURATION_BINS = 256;
+    public static final int VALUE_BINS = 256;
+
+    private static final Size BLUR_SIZE = new Size(7, 7);
+
+    private long[][] histograms = { new long[HUE_BINS], new long[SATURATION_BINS], new long[VALUE_BINS] };
+    private long samplePixels = 0;
+
+    /**
+     * Add the pixels of a region of a frame to the histograms.
+     * 
+     * @param frame
+     *            The BGR frame
+     * @param region
+     *            The region of the frame covered by the object
+     */
+    public void addSample(Mat frame, Rect region) {
+	merge(histogram(frame, region));
+    }
+
+    /**
+     * Add a region from each of the given frames, computing the histograms of the
+     * frames in parallel.
+     * 
+     * @param frames
+     *            The BGR frames
+     * @param regions
+     *            The region of each frame covered by the object
+     */
+    public void addSamples(List<Mat> frames, List<Rect> regions) {
+	if (frames.size() != regions.size()) {
+	    throw new IllegalArgumentException("Need one region per frame");
+	}
+	IntStream.range(0, frames.size()).parallel().mapToObj(i -> histogram(frames.get(i), regions.get(i)))
+		.forEach(this::merge);
+    }
+
+    /**
+     * Return the number of pixels sampled so far.
+     * 
+     * @return The number of pixels
+     */
+    public synchronized long getSamplePixels() {
+	return samplePixels;
+    }
+
+    /**
+     * Return the minimum HSV values, taken at the given percentile of each
+     * channel.
+     * 
+     * @param percentile
+     *            The percentile, between 0 and 1, for example 0.02
+     * @return The minimum HSV values
+     */
+    public synchronized Scalar getMinValues(double percentile) {
+	return new Scalar(percentile(histograms[0], percentile), percentile(histograms[1], percentile),
+		percentile(histograms[2], percentile));
+    }
+
+    /**
+     * Return the maximum HSV values, taken at the given percentile of each
+     * channel.
+     * 
+     * @param percentile
+     *            The percentile, between 0 and 1, for example 0.98
+     * @return The maximum HSV values
+     */
+    public synchronized Scalar getMaxValues(double percentile) {
+	return new Scalar(percentile(histograms[0], percentile), percentile(histograms[1], percentile),
+		percentile(histograms[2], percentile));
+    }
+
+    /**
+     * Clear all samples.
+     */
+    public synchronized void reset() {
+	for (long[] histogram : histograms) {
+	    Arrays.fill(histogram, 0);
+	}
+	samplePixels = 0;
+    }
+
+    private synchronized void merge(long[][] sample) {
+	for (int channel = 0; channel < histograms.length; channel++) {
+	    for (int bin = 0; bin < histograms[channel].length; bin++) {
+		histograms[channel][bin] += sample[channel][bin];
+	    }
+	}
+	samplePixels += Arrays.stream(sample[0]).sum();
+    }
+
+    private long[][] histogram(Mat frame, Rect region) {
+	Mat roi = frame.submat(region);
+	Mat blurred = new Mat();
+	Mat hsv = new Mat();
+	Mat hist = new Mat();
+	Mat noMask = new Mat();
+	MatOfInt channels = new MatOfInt();
+	MatOfInt histogramSize = new MatOfInt();
+	MatOfFloat ranges = new MatOfFloat();
+	List<Mat> images = Arrays.asList(hsv);
+	int[] bins = { HUE_BINS, SATURATION_BINS, VALUE_BINS };
+	long[][] sample = new long[3][];
+	try {
+	    Imgproc.blur(roi, blurred, BLUR_SIZE);
+	    Imgproc.cvtColor(blurred, hsv, Imgproc.COLOR_BGR2HSV);
+	    for (int channel = 0; channel < 3; channel++) {
+		channels.fromArray(channel);
+		histogramSize.fromArray(bins[channel]);
+		ranges.fromArray(0, bins[channel]);
+		Imgproc.calcHist(images, channels, noMask, hist, histogramSize, ranges);
+		float[] counts = new float[bins[channel]];
+		hist.get(0, 0, counts);
+		sample[channel] = new long[bins[channel]];
+		for (int bin = 0; bin < counts.length; bin++) {
+		    sample[channel][bin] = (long) counts[bin];
+		}
+	    }
+	} finally {
+	    roi.release();
+	    blurred.release();
+	    hsv.release();
+	    hist.release();
+	    noMask.release();
+	    channels.release();
+	    histogramSize.release();
+	    ranges.release();
+	}
+	return sample;
+    }
+
+    private static int percentile(long[] histogram, double percentile) {
+	long total = Arrays.stream(histogram).sum();
+	if (total == 0) {
+	    return 0;
+	}
+	long target = (long) Math.ceil(percentile * total);
+	long count = 0;
+	for (int bin = 0; bin < histogram.length; bin++) {
+	    count += histogram[bin];
+	    if (count >= Math.max(1, target)) {
+		return bin;
+	    }
+	}
+	return histogram.length - 1;
+    }
+
+    /**
+     * Calibrate from a frame log recorded by the image capture service, using the
+     * same region of every frame, and print the bounds to pass to the
+     * ObjectTracker.
+     * 
+     * @param args
+     *            The frame log file followed by the region's x, y, width and
+     *            height
+     * @throws IOException
+     *             If the frame log cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length < 5) {
+	    System.out.println("Usage: HsvCalibrator <frame log> <x> <y> <width> <height>");
+	    return;
+	}
+	OpenCvLoader.load();
+	// The histograms are computed on the common fork join pool and the caller
+	RuntimeConfig.apply(ForkJoinPool.getCommonPoolParallelism() + 1);
+	Rect region = new Rect(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+		Integer.parseInt(args[4]));
+
+	HsvCalibrator calibrator = new HsvCalibrator();
+	FrameLogSource source = new FrameLogSource(new File(args[0]));
+	List<Mat> batch = new ArrayList<>();
+	List<Rect> regions = new ArrayList<>();
+	Mat frame = new Mat();
+	while (source.read(frame)) {
+	    batch.add(frame.clone());
+	    regions.add(region);
+	    if (batch.size() == 64) {
+		calibrator.addSamples(batch, regions);
+		batch.forEach(Mat::release);
+		batch.clear();
+		regions.clear();
+	    }
+	}
+	calibrator.addSamples(batch, regions);
+	source.release();
+
+	System.out.println("Sampled " + calibrator.getSamplePixels() + " pixels");
+	System.out.println("HSV min: " + calibrator.getMinValues(0.02));
+	System.out.println("HSV max: " + calibrator.getMaxValues(0.98));
+    }
+}
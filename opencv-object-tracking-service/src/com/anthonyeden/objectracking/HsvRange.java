@@ -0,0 +1,51 @@
+package com.anthonyeden.objectracking;
+
+import org.opencv.core.Scalar;
+
+/**
+ * An immutable range of HSV values to track. The minimum and maximum are
+ * copied in and out, so a range can be swapped on a running ObjectTracker in
+ * one step and a frame never sees the minimum of one range with the maximum of
+ * another.
+ */
+public class HsvRange {
+
+    private final Scalar min;
+    private final Scalar max;
+
+    /**
+     * Construct a new HSV range.
+     * 
+     * @param min
+     *            The minimum HSV values
+     * @param max
+     *            The maximum HSV values
+     */
+    public HsvRange(Scalar min, Scalar max) {
+	this.min = min.clone();
+	this.max = max.clone();
+    }
+
+    /**
+     * Return a copy of the minimum HSV values.
+     * 
+     * @return The minimum HSV values
+     */
+    public Scalar getMin() {
+	return min.clone();
+    }
+
+    /**
+     * Return a copy of the maximum HSV values.
+     * 
+     * @return The maximum HSV values
+     */
+    public Scalar getMax() {
+	return max.clone();
+    }
+
+    @Override
+    public String toString() {
+	return min + " - " + max;
+    }
+}
@@ -1,7 +1,15 @@
 package com.anthonyeden.objectracking;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -15,24 +23,47 @@ import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.videoio.VideoCapture;
 
+import com.anthonyeden.imagecapture.CapturedFrame;
+import com.anthonyeden.imagecapture.FrameLogSource;
+import com.anthonyeden.imagecapture.FrameSource;
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.RuntimeConfig;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+import com.anthonyeden.imagecapture.TraceRing;
+
 public class ObjectTracker {
 
     public static final int UPDATE_DELAY = 100;
     public static final int OBJECT_NOT_PRESENT = -255;
+    public static int WARMUP_FRAMES = 10;
+    public static int WARMUP_WIDTH = 640;
+    public static int WARMUP_HEIGHT = 480;
 
     private int direction = 0;
     private boolean objectPresent = false;
+    private long sequence = 0;
+    private long captureSequence = 0;
+    private volatile TrackingResult lastResult;
+    private volatile DirectionPredictor predictor;
+    private volatile CamShiftTracker camShiftTracker;
+    private volatile ComponentDetector componentDetector;
+    private volatile Rect centerTarget;
+    private volatile OverloadController overloadController;
+    private volatile QualityLevel qualityLevel = QualityLevel.FULL;
+    private List<TrackingListener> listeners = new CopyOnWriteArrayList<>();
 
     private int cameraId;
     private float fps;
-    private Scalar hsvMinValues;
-    private Scalar hsvMaxValues;
+    private volatile HsvRange hsvRange;
 
     private VideoCapture camera = new VideoCapture();
     private ScheduledExecutorService timer;
 
     private Mat dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(24, 24));
     private Mat erodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(12, 12));
+    private double elementScale = 1;
+    private Mat scaledDilateElement = dilateElement;
+    private Mat scaledErodeElement = erodeElement;
 
     /**
      * Construct a new ObjectTracker. It will use the camera with the ID 0 and an
@@ -41,8 +72,7 @@ public class ObjectTracker {
     public ObjectTracker() {
 	this.cameraId = 0;
 	this.fps = 10;
-	this.hsvMinValues = new Scalar(36, 55, 106);
-	this.hsvMaxValues = new Scalar(77, 255, 255);
+	this.hsvRange = new HsvRange(new Scalar(36, 55, 106), new Scalar(77, 255, 255));
     }
 
     /**
@@ -62,17 +92,22 @@ public class ObjectTracker {
     public ObjectTracker(int cameraId, int fps, Scalar hsvMinValues, Scalar hsvMaxValues) {
 	this.cameraId = cameraId;
 	this.fps = fps;
-	this.hsvMinValues = hsvMinValues;
-	this.hsvMaxValues = hsvMaxValues;
+	this.hsvRange = new HsvRange(hsvMinValues, hsvMaxValues);
     }
 
     /**
      * Return 1, 0, -1 depending on the direction the tracker must turn to follow an
-     * object.
+     * object. With predictive tracking enabled the direction is decided from the
+     * object's predicted position at the time of the call.
      * 
      * @return 1 for right, 0 for stop, -1 for left
      */
     public int getDirection() {
+	DirectionPredictor predictor = this.predictor;
+	Rect centerTarget = this.centerTarget;
+	if (predictor != null && centerTarget != null) {
+	    return predictor.direction(System.nanoTime(), centerTarget);
+	}
 	return direction;
     }
 
@@ -82,15 +117,231 @@ public class ObjectTracker {
      * @return True if the object is present in the camera view.
      */
     public boolean isObjectPresent() {
+	DirectionPredictor predictor = this.predictor;
+	if (predictor != null) {
+	    return predictor.isTracking(System.nanoTime());
+	}
 	return objectPresent;
     }
 
+    /**
+     * Return the result of the most recently processed frame.
+     * 
+     * @return The tracking result, or null if no frame has been processed
+     */
+    public TrackingResult getLastResult() {
+	return lastResult;
+    }
+
+    /**
+     * Change the range of HSV values that are tracked, for example after
+     * calibrating with an HsvCalibrator.
+     * 
+     * @param hsvMinValues
+     *            The minimum HSV values.
+     * @param hsvMaxValues
+     *            The maximum HSV values.
+     */
+    public void setHsvRange(Scalar hsvMinValues, Scalar hsvMaxValues) {
+	setHsvRange(new HsvRange(hsvMinValues, hsvMaxValues));
+    }
+
+    /**
+     * Change the range of HSV values that are tracked. The next frame processed
+     * uses the whole new range. If CamShift tracking is enabled the tracker is
+     * rebuilt, since its hue model was locked on with the old range, and the
+     * object is found again with the full pipeline. The old tracker's buffers
+     * are released.
+     * 
+     * @param hsvRange
+     *            The HSV range
+     */
+    public synchronized void setHsvRange(HsvRange hsvRange) {
+	this.hsvRange = hsvRange;
+	CamShiftTracker oldTracker = camShiftTracker;
+	if (oldTracker != null) {
+	    camShiftTracker = new CamShiftTracker(hsvRange.getMin(), hsvRange.getMax());
+	    // Waits for a frame the old tracker is tracking to finish
+	    oldTracker.release();
+	}
+    }
+
+    /**
+     * Return the range of HSV values that are tracked.
+     * 
+     * @return The HSV range
+     */
+    public HsvRange getHsvRange() {
+	return hsvRange;
+    }
+
+    /**
+     * Enable or disable predictive tracking. When enabled the object's position is
+     * smoothed and predicted between frames by a DirectionPredictor, so the
+     * direction stays fresh and stable even at a low FPS.
+     * 
+     * @param predictor
+     *            The predictor to use, or null to decide from the latest frame
+     *            only
+     */
+    public void setDirectionPredictor(DirectionPredictor predictor) {
+	this.predictor = predictor;
+    }
+
+    /**
+     * Enable or disable CamShift tracking. When enabled the full HSV mask and
+     * contour pipeline only runs until the object is found. A hue histogram of
+     * the object is then built and the object is followed with back projection and
+     * CamShift inside a search window, until it is lost.
+     * 
+     * @param enabled
+     *            True to track with CamShift
+     */
+    public synchronized void setCamShiftTracking(boolean enabled) {
+	HsvRange hsvRange = this.hsvRange;
+	CamShiftTracker oldTracker = this.camShiftTracker;
+	this.camShiftTracker = enabled ? new CamShiftTracker(hsvRange.getMin(), hsvRange.getMax()) : null;
+	if (oldTracker != null) {
+	    oldTracker.release();
+	}
+    }
+
+    /**
+     * Find objects in the mask with connected components instead of contours.
+     * This is cheaper when there are many blobs, since only their bounding boxes
+     * are needed. Only the blob with the largest bounding box is reported, which
+     * is the one the contour path would lock on to and predict from.
+     * 
+     * @param componentDetector
+     *            The detector to use, or null to find contours
+     */
+    public void setComponentDetector(ComponentDetector componentDetector) {
+	this.componentDetector = componentDetector;
+    }
+
+    /**
+     * Enable or disable load shedding. When enabled the time taken per frame is
+     * reported to the controller, and frames are processed at the quality level
+     * it chooses. Frames followed with CamShift are not reported, since only the
+     * frame interval of a level changes their cost: the level is held while
+     * CamShift is tracking and the controller carries on once the object is
+     * lost.
+     * 
+     * @param overloadController
+     *            The controller to use, or null to always process at full quality
+     */
+    public void setOverloadController(OverloadController overloadController) {
+	this.overloadController = overloadController;
+	this.qualityLevel = overloadController != null ? overloadController.getLevel() : QualityLevel.FULL;
+    }
+
+    /**
+     * Return the quality level frames are currently processed at.
+     * 
+     * @return The quality level, QualityLevel.FULL unless load shedding is
+     *         enabled
+     */
+    public QualityLevel getQualityLevel() {
+	return qualityLevel;
+    }
+
+    /**
+     * Return the effective OpenCV runtime settings along with the tracker's own
+     * counters, for the same report StreamingServer gives at /metrics.
+     * 
+     * @return The metrics by name, in a stable order
+     */
+    public Map<String, Object> getMetrics() {
+	Map<String, Object> metrics = RuntimeConfig.settings();
+	TrackingResult lastResult = this.lastResult;
+	metrics.put("results", lastResult != null ? lastResult.getSequence() : 0);
+	metrics.put("quality_level", qualityLevel);
+	OverloadController overloadController = this.overloadController;
+	if (overloadController != null) {
+	    metrics.put("frame_nanos_average", overloadController.getAverageNanos());
+	    metrics.put("frame_nanos_budget", overloadController.getFrameBudgetNanos());
+	    metrics.put("quality_level_changes", overloadController.getLevelChanges());
+	}
+	return metrics;
+    }
+
+    /**
+     * Add a listener that receives the result of every processed frame.
+     * 
+     * @param listener
+     *            The listener
+     */
+    public void addTrackingListener(TrackingListener listener) {
+	listeners.add(listener);
+    }
+
+    /**
+     * Remove a previously added listener.
+     * 
+     * @param listener
+     *            The listener
+     */
+    public void removeTrackingListener(TrackingListener listener) {
+	listeners.remove(listener);
+    }
+
+    /**
+     * Run the detection pipeline over synthetic frames so the native kernels,
+     * their buffers and the JIT are warm before the first camera frame arrives.
+     * The frames go through a throwaway tracker with the same settings, so this
+     * tracker's state and listeners are not touched and the warm-up can run
+     * while the camera is opening.
+     * 
+     * @param frames
+     *            The number of frames to process
+     */
+    public void warmUp(int frames) {
+	ObjectTracker warmUpTracker = new ObjectTracker(cameraId, (int) fps, hsvRange.getMin(), hsvRange.getMax());
+	warmUpTracker.setCamShiftTracking(camShiftTracker != null);
+	ComponentDetector componentDetector = this.componentDetector;
+	if (componentDetector != null) {
+	    warmUpTracker.setComponentDetector(new ComponentDetector(componentDetector.getMinArea()));
+	}
+	if (predictor != null) {
+	    warmUpTracker.setDirectionPredictor(new DirectionPredictor());
+	}
+
+	SyntheticFrameSource source = new SyntheticFrameSource(WARMUP_WIDTH, WARMUP_HEIGHT, 1e6);
+	Mat frame = new Mat();
+	try {
+	    for (int i = 0; i < frames && source.read(frame); i++) {
+		warmUpTracker.processFrame(frame);
+	    }
+	} finally {
+	    frame.release();
+	    source.release();
+	}
+    }
+
     /**
      * Set up the camera and start grabbing frames.
      */
     public void startCapture() {
+	startCapture(null);
+    }
+
+    /**
+     * Set up the camera and start grabbing frames once the given warm-up has
+     * finished, so the warm-up overlaps with opening the camera.
+     * 
+     * @param warmUp
+     *            The thread running warmUp, or null to start right away
+     */
+    public void startCapture(Thread warmUp) {
 	System.out.println("Starting camera with ID " + cameraId);
 	this.camera.open(cameraId);
+	if (warmUp != null) {
+	    try {
+		warmUp.join();
+	    } catch (InterruptedException e) {
+		System.out.println("Thread interrupted, continuing");
+	    }
+	}
 	if (this.camera.isOpened()) {
 	    System.out.println("Camera is running");
 	    Runnable frameGrabber = new Runnable() {
@@ -123,12 +374,59 @@ public class ObjectTracker {
      * @param args
      *            List of command line arguments
      */
-    public static void main(String[] args) {
-	System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    public static void main(String[] args) throws IOException {
+	OpenCvLoader.load();
+	// The frame grabber is the only thread calling into OpenCV
+	RuntimeConfig.apply(1);
+	System.out.println("OpenCV runtime: " + RuntimeConfig.describe());
 	ObjectTracker tracker = new ObjectTracker();
-	tracker.startCapture();
+	tracker.addTrackingListener(new TrackingListener() {
+	    @Override
+	    public void trackingUpdated(TrackingResult result) {
+		if (result.getSequence() == 1) {
+		    System.out.println("First decision " + millisSinceJvmStart() + "ms after JVM start");
+		}
+	    }
+	});
+	if (args.length > 0) {
+	    replayFrameLog(tracker, new File(args[0]));
+	    return;
+	}
+	if (Boolean.getBoolean("objecttracking.camshift")) {
+	    tracker.setCamShiftTracking(true);
+	}
+	Integer minComponentArea = Integer.getInteger("objecttracking.components.minArea");
+	if (minComponentArea != null) {
+	    tracker.setComponentDetector(new ComponentDetector(minComponentArea));
+	}
+	if (Boolean.getBoolean("objecttracking.predict")) {
+	    tracker.setDirectionPredictor(new DirectionPredictor());
+	}
+	if (Boolean.getBoolean("objecttracking.shedLoad")) {
+	    tracker.setOverloadController(new OverloadController((long) (1e9 / tracker.fps)));
+	}
+	Integer serverPort = Integer.getInteger("objecttracking.serverPort");
+	TrackingServer server = null;
+	if (serverPort != null) {
+	    server = new TrackingServer();
+	    server.start(System.getProperty("objecttracking.serverBind", "127.0.0.1"), serverPort);
+	    tracker.addTrackingListener(server);
+	}
+	Thread warmUp = null;
+	if (!Boolean.getBoolean("objecttracking.skipWarmup")) {
+	    warmUp = new Thread(() -> tracker.warmUp(WARMUP_FRAMES), "warm-up");
+	    warmUp.start();
+	}
+	answerConsoleRequests(tracker, server);
+	tracker.startCapture(warmUp);
 	int lastState = 0;
+	QualityLevel lastLevel = tracker.getQualityLevel();
 	while (true) {
+	    QualityLevel level = tracker.getQualityLevel();
+	    if (level != lastLevel) {
+		System.out.println("Quality level: " + level);
+	    }
+	    lastLevel = level;
 	    if (tracker.isObjectPresent()) {
 		int direction = tracker.getDirection();
 		if (direction != lastState) {
@@ -150,6 +448,117 @@ public class ObjectTracker {
 	}
     }
 
+    /**
+     * Return the time since the JVM started, which includes loading the classes
+     * and the native library as well as everything done in main.
+     * 
+     * @return The number of milliseconds since the JVM started
+     */
+    public static long millisSinceJvmStart() {
+	return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * Print the metrics whenever "metrics" is entered on standard input, one
+     * <code>name value</code> pair per line, and dump the trace ring whenever
+     * "trace" is entered.
+     * 
+     * @param tracker
+     *            The tracker
+     * @param server
+     *            The tracking server, or null if there is none
+     */
+    private static void answerConsoleRequests(ObjectTracker tracker, TrackingServer server) {
+	Thread console = new Thread(() -> {
+	    try {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while ((line = in.readLine()) != null) {
+		    if (line.trim().equals("metrics")) {
+			Map<String, Object> metrics = tracker.getMetrics();
+			if (server != null) {
+			    metrics.put("subscribers", server.getSubscriberCount());
+			}
+			for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+			    System.out.println(metric.getKey() + " " + metric.getValue());
+			}
+		    } else if (line.trim().equals("trace") && TraceRing.ENABLED) {
+			TraceRing.get().dump(new OutputStreamWriter(System.out));
+		    }
+		}
+	    } catch (IOException e) {
+		System.err.println("Exception reading console requests: " + e);
+	    }
+	}, "console");
+	console.setDaemon(true);
+	console.start();
+	System.out.println("Enter metrics to print the runtime metrics"
+		+ (TraceRing.ENABLED ? ", or trace to dump the recent spans" : ""));
+    }
+
+    /**
+     * Replay a frame log recorded by the image capture service through the
+     * tracker, printing each change of direction with the frame number it
+     * happened on.
+     * 
+     * @param tracker
+     *            The tracker
+     * @param logFile
+     *            The frame log file
+     * @throws IOException
+     *             If the frame log cannot be opened
+     */
+    private static void replayFrameLog(ObjectTracker tracker, File logFile) throws IOException {
+	FrameLogSource source = new FrameLogSource(logFile);
+	int[] lastState = { 0 };
+	long start = System.nanoTime();
+	long frames = tracker.replay(source, () -> {
+	    int state = tracker.isObjectPresent() ? tracker.getDirection() : OBJECT_NOT_PRESENT;
+	    if (state != lastState[0]) {
+		System.out.println(source.getFrameNumber() + ": "
+			+ (state == OBJECT_NOT_PRESENT ? "Object not present" : String.valueOf(state)));
+	    }
+	    lastState[0] = state;
+	});
+	source.release();
+	if (TraceRing.ENABLED) {
+	    TraceRing.get().dump(new OutputStreamWriter(System.out));
+	}
+	double seconds = (System.nanoTime() - start) / 1e9;
+	System.out.println("Replayed " + frames + " frames in " + String.format("%.2f", seconds) + "s");
+    }
+
+    /**
+     * Process every frame from the given source as fast as it can be read,
+     * ignoring the frame grab schedule. This is used to replay recorded frames
+     * faster than real time.
+     * 
+     * @param source
+     *            The source of frames
+     * @param frameProcessed
+     *            Called after each frame, when the direction and presence
+     *            reflect that frame
+     * @return The number of frames processed
+     */
+    public long replay(FrameSource source, Runnable frameProcessed) {
+	Mat frame = new Mat();
+	long frames = 0;
+	try {
+	    while (source.read(frame)) {
+		captureSequence = captureSequence + 1;
+		// Keep the recorded capture time, while the latency is measured from
+		// when the frame was read back
+		processFrame(new CapturedFrame(frame, "replay", captureSequence, System.nanoTime(),
+			source.getTimestamp()));
+		frameProcessed.run();
+		frames = frames + 1;
+	    }
+	} finally {
+	    frame.release();
+	}
+	return frames;
+    }
+
     /**
      * Calculate the frame grab schedule. Converts FPS to milliseconds of delay.
      * 
@@ -169,88 +578,268 @@ public class ObjectTracker {
 
 	// check if the capture is open
 	if (this.camera.isOpened()) {
-	    try {
-		// read the current frame
-		this.camera.read(frame);
-
-		// if the frame is not empty, process it
-		if (!frame.empty()) {
-		    // System.out.println("Processing frame");
-		    Mat blurredImage = new Mat();
-		    Mat hsvImage = new Mat();
-		    Mat mask = new Mat();
-		    Mat morphOutput = new Mat();
-		    List<MatOfPoint> contours = new ArrayList<>();
-		    Mat hierarchy = new Mat();
-
-		    try {
-			// remove some noise
-			Size blurSize = new Size(7, 7);
-			Imgproc.blur(frame, blurredImage, blurSize);
-
-			// convert the frame to HSV
-			Imgproc.cvtColor(blurredImage, hsvImage, Imgproc.COLOR_BGR2HSV);
-
-			// fill in the mask that is used to find the objects
-			Core.inRange(hsvImage, hsvMinValues, hsvMaxValues, mask);
-
-			// morphological operators
-			// dilate with large element, erode with small element
-			Imgproc.erode(mask, morphOutput, erodeElement);
-			Imgproc.erode(morphOutput, morphOutput, erodeElement);
-
-			Imgproc.dilate(morphOutput, morphOutput, dilateElement);
-			Imgproc.dilate(morphOutput, morphOutput, dilateElement);
-
-			// Find contours
-			Imgproc.findContours(morphOutput, contours, hierarchy, Imgproc.RETR_CCOMP,
-				Imgproc.CHAIN_APPROX_SIMPLE);
-
-			if (contours.size() == 0) {
-			    // The object does not appear to be present anywhere in the camera's view
-			    this.objectPresent = false;
-			} else {
-			    // The object is present in the camera's view, but not centered
-			    this.objectPresent = true;
-
-			    for (int i = 0; i < contours.size(); i++) {
-				MatOfPoint contour = contours.get(i);
-
-				Rect boundingRect = Imgproc.boundingRect(contour);
-				Rect centerTarget = getCenterTargetRect(frame);
-
-				// If the bounding rectangle and target intersect, then the direction is 0, the
-				// target is centered
-				if (intersects(boundingRect, centerTarget)) {
-				    this.direction = 0;
-				} else {
-				    if (boundingRect.x > centerTarget.x + centerTarget.width) {
-					// If the bounding rectangle's X value is greater than the center target X +
-					// width, then the object is to the right
-					this.direction = 1;
-				    } else {
-					// Otherwise the object is to the left
-					this.direction = -1;
-				    }
-				}
-
-				contour.release();
-			    }
-			}
-		    } finally {
-			blurredImage.release();
-			hsvImage.release();
-			mask.release();
-			morphOutput.release();
-			hierarchy.release();
+	    // read the current frame
+	    long readStart = TraceRing.start();
+	    this.camera.read(frame);
+	    captureSequence = captureSequence + 1;
+	    CapturedFrame capturedFrame = new CapturedFrame(frame, "camera-" + cameraId, captureSequence);
+	    TraceRing.span("read", capturedFrame, readStart);
+	    processFrame(capturedFrame);
+	}
+
+	frame.release();
+    }
+
+    /**
+     * Update the direction and presence from the given BGR frame, treating it as
+     * captured now.
+     * 
+     * @param frame
+     *            The frame to process
+     */
+    protected void processFrame(Mat frame) {
+	captureSequence = captureSequence + 1;
+	processFrame(new CapturedFrame(frame, "camera-" + cameraId, captureSequence));
+    }
+
+    /**
+     * Update the direction and presence from the given captured frame. Its
+     * capture time is used for prediction and for the latency of the result.
+     * 
+     * @param capturedFrame
+     *            The frame to process
+     */
+    protected void processFrame(CapturedFrame capturedFrame) {
+	Mat frame = capturedFrame.getMat();
+	long frameTime = capturedFrame.getCaptureNanos();
+	int frameInterval = qualityLevel.getFrameInterval();
+	if (frameInterval > 1 && capturedFrame.getSequence() % frameInterval != 0) {
+	    // Shedding load by processing fewer frames
+	    return;
+	}
+	try {
+	    // if the frame is not empty, process it
+	    if (!frame.empty()) {
+		long processStart = System.nanoTime();
+		// System.out.println("Processing frame");
+		long detectStart = TraceRing.start();
+		List<Rect> boundingRects = null;
+		CamShiftTracker camShiftTracker = this.camShiftTracker;
+		if (camShiftTracker != null) {
+		    boundingRects = camShiftTracker.track(frame);
+		}
+		boolean camShiftTracked = boundingRects != null;
+		if (boundingRects == null) {
+		    boundingRects = findObjects(frame);
+		    if (camShiftTracker != null && !boundingRects.isEmpty()) {
+			// Build the hue model from the object found by the full pipeline and
+			// track it with CamShift from the next frame on
+			camShiftTracker.lock(frame, largest(boundingRects));
 		    }
 		}
-	    } catch (Exception e) {
-		System.err.println("Exception during the image elaboration: " + e);
+		TraceRing.span("detect", capturedFrame, detectStart);
+		updateDirection(capturedFrame, boundingRects, frameTime);
+
+		// CamShift's cost does not depend on the quality level, so only frames
+		// that went through the full pipeline are reported
+		OverloadController overloadController = this.overloadController;
+		if (overloadController != null && !camShiftTracked) {
+		    qualityLevel = overloadController.frameProcessed(System.nanoTime() - processStart);
+		}
 	    }
+	} catch (Exception e) {
+	    System.err.println("Exception during the image elaboration: " + e);
 	}
+    }
 
-	frame.release();
+    /**
+     * Find the bounding rectangles of everything in the frame within the HSV
+     * range, at the current quality level. At a reduced scale the rectangles are
+     * scaled back to the frame's coordinates. With a ComponentDetector only the
+     * largest rectangle is returned.
+     * 
+     * @param frame
+     *            The BGR frame
+     * @return The bounding rectangles
+     */
+    protected List<Rect> findObjects(Mat frame) {
+	QualityLevel level = this.qualityLevel;
+	HsvRange hsvRange = this.hsvRange;
+	double scale = level.getScale();
+	Mat scaledImage = new Mat();
+	Mat blurredImage = new Mat();
+	Mat hsvImage = new Mat();
+	Mat mask = new Mat();
+	Mat morphOutput = new Mat();
+	List<MatOfPoint> contours = new ArrayList<>();
+	Mat hierarchy = new Mat();
+	List<Rect> boundingRects = new ArrayList<>();
+
+	try {
+	    Mat input = frame;
+	    if (scale != 1) {
+		Imgproc.resize(frame, scaledImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+		input = scaledImage;
+	    }
+
+	    // remove some noise
+	    Size blurSize = new Size(level.getBlurSize(), level.getBlurSize());
+	    Imgproc.blur(input, blurredImage, blurSize);
+
+	    // convert the frame to HSV
+	    Imgproc.cvtColor(blurredImage, hsvImage, Imgproc.COLOR_BGR2HSV);
+
+	    // fill in the mask that is used to find the objects
+	    Core.inRange(hsvImage, hsvRange.getMin(), hsvRange.getMax(), mask);
+
+	    // morphological operators
+	    // dilate with large element, erode with small element
+	    scaleElements(scale);
+	    Imgproc.erode(mask, morphOutput, scaledErodeElement);
+	    for (int i = 1; i < level.getMorphPasses(); i++) {
+		Imgproc.erode(morphOutput, morphOutput, scaledErodeElement);
+	    }
+
+	    for (int i = 0; i < level.getMorphPasses(); i++) {
+		Imgproc.dilate(morphOutput, morphOutput, scaledDilateElement);
+	    }
+
+	    ComponentDetector componentDetector = this.componentDetector;
+	    if (componentDetector != null) {
+		// Find connected components and keep the one with the largest bounding
+		// box, reading the boxes straight from the stats
+		int count = componentDetector.detect(morphOutput);
+		int largest = -1;
+		long largestArea = -1;
+		for (int i = 0; i < count; i++) {
+		    long area = (long) componentDetector.getWidth(i) * componentDetector.getHeight(i);
+		    if (area > largestArea) {
+			largest = i;
+			largestArea = area;
+		    }
+		}
+		if (largest >= 0) {
+		    boundingRects.add(new Rect(componentDetector.getX(largest), componentDetector.getY(largest),
+			    componentDetector.getWidth(largest), componentDetector.getHeight(largest)));
+		}
+	    } else {
+		// Find contours
+		Imgproc.findContours(morphOutput, contours, hierarchy, Imgproc.RETR_CCOMP,
+			Imgproc.CHAIN_APPROX_SIMPLE);
+
+		for (MatOfPoint contour : contours) {
+		    boundingRects.add(Imgproc.boundingRect(contour));
+		    contour.release();
+		}
+	    }
+	} finally {
+	    scaledImage.release();
+	    blurredImage.release();
+	    hsvImage.release();
+	    mask.release();
+	    morphOutput.release();
+	    hierarchy.release();
+	}
+	if (scale != 1) {
+	    // Map the edges rather than the size, and keep them inside the frame,
+	    // so a rectangle can always be used to take a submat of the frame
+	    for (int i = 0; i < boundingRects.size(); i++) {
+		Rect rect = boundingRects.get(i);
+		int left = Math.max(0, (int) Math.floor(rect.x / scale));
+		int top = Math.max(0, (int) Math.floor(rect.y / scale));
+		int right = Math.min(frame.cols(), (int) Math.ceil((rect.x + rect.width) / scale));
+		int bottom = Math.min(frame.rows(), (int) Math.ceil((rect.y + rect.height) / scale));
+		boundingRects.set(i, new Rect(left, top, right - left, bottom - top));
+	    }
+	}
+	return boundingRects;
+    }
+
+    private void scaleElements(double scale) {
+	if (scale == elementScale) {
+	    return;
+	}
+	if (scaledDilateElement != dilateElement) {
+	    scaledDilateElement.release();
+	    scaledErodeElement.release();
+	}
+	if (scale == 1) {
+	    scaledDilateElement = dilateElement;
+	    scaledErodeElement = erodeElement;
+	} else {
+	    // Keep the elements the same size relative to the object
+	    int dilateSize = Math.max(1, (int) Math.round(24 * scale));
+	    int erodeSize = Math.max(1, (int) Math.round(12 * scale));
+	    scaledDilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT,
+		    new Size(dilateSize, dilateSize));
+	    scaledErodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(erodeSize, erodeSize));
+	}
+	elementScale = scale;
+    }
+
+    private void updateDirection(CapturedFrame capturedFrame, List<Rect> boundingRects, long frameTime) {
+	long decideStart = TraceRing.start();
+	Mat frame = capturedFrame.getMat();
+	Rect centerTarget = getCenterTargetRect(frame);
+	if (boundingRects.size() == 0) {
+	    // The object does not appear to be present anywhere in the camera's view
+	    this.objectPresent = false;
+	} else {
+	    // The object is present in the camera's view, but not centered
+	    this.objectPresent = true;
+
+	    for (Rect boundingRect : boundingRects) {
+		// If the bounding rectangle and target intersect, then the direction is 0, the
+		// target is centered
+		if (intersects(boundingRect, centerTarget)) {
+		    this.direction = 0;
+		} else {
+		    if (boundingRect.x > centerTarget.x + centerTarget.width) {
+			// If the bounding rectangle's X value is greater than the center target X +
+			// width, then the object is to the right
+			this.direction = 1;
+		    } else {
+			// Otherwise the object is to the left
+			this.direction = -1;
+		    }
+		}
+	    }
+	}
+
+	this.centerTarget = centerTarget;
+	DirectionPredictor predictor = this.predictor;
+	if (predictor != null && !boundingRects.isEmpty()) {
+	    predictor.observe(largest(boundingRects), frameTime, centerTarget);
+	}
+
+	sequence = sequence + 1;
+	lastResult = new TrackingResult(sequence, System.currentTimeMillis(), capturedFrame.getSourceId(),
+		capturedFrame.getSequence(), capturedFrame.getCaptureMillis(),
+		(int) (capturedFrame.getAgeNanos() / 1000), objectPresent, direction, boundingRects);
+	TraceRing.span("decide", capturedFrame, decideStart);
+	long notifyStart = TraceRing.start();
+	notifyListeners(lastResult);
+	TraceRing.span("notify", capturedFrame, notifyStart);
+    }
+
+    private void notifyListeners(TrackingResult result) {
+	for (TrackingListener listener : listeners) {
+	    try {
+		listener.trackingUpdated(result);
+	    } catch (RuntimeException e) {
+		System.err.println("Exception in tracking listener: " + e);
+	    }
+	}
+    }
+
+    private Rect largest(List<Rect> rects) {
+	Rect largest = rects.get(0);
+	for (Rect rect : rects) {
+	    if (rect.area() > largest.area()) {
+		largest = rect;
+	    }
+	}
+	return largest;
     }
 
     private Rect getCenterTargetRect(Mat frame) {
@@ -0,0 +1,301 @@
+package com.anthonyeden.objectracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import com.anthonyeden.imagecapture.CapturedFrame;
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+
+/**
+ * Exercises the OverloadController and the quality ladder in four parts:
+ * 
+ * <ol>
+ * <li>The cost per frame of the ObjectTracker at each rung of the default
+ * ladder, and how often it agrees with full quality on presence and
+ * direction.</li>
+ * <li>A simulation with a slow stage whose cost rises past the frame budget and
+ * falls back. The costs per rung are fixed, so the run is deterministic: the
+ * controller must step down while overloaded and be back at full quality at the
+ * end, or the benchmark exits with status 1.</li>
+ * <li>The real ObjectTracker with a synthetic slow stage added to its full
+ * pipeline. Frames must be skipped by sequence at half FPS, rectangles found at
+ * a quarter of the resolution must map back inside the frame, and frames
+ * followed with CamShift must never change the level, or the benchmark exits
+ * with status 1.</li>
+ * <li>The real tracker with a budget below its full quality cost, showing the
+ * rung it settles on.</li>
+ * </ol>
+ */
+public class OverloadBenchmark {
+
+    public static int FRAMES = 300;
+    public static int WARMUP_FRAMES = 30;
+    public static int FRAME_WIDTH = 640;
+    public static int FRAME_HEIGHT = 480;
+
+    /**
+     * The simulated cost of each rung of the default ladder relative to full
+     * quality.
+     */
+    public static double[] SIMULATED_LEVEL_COSTS = { 1.0, 0.8, 0.7, 0.3, 0.1, 0.1 };
+    public static long SIMULATED_BUDGET_NANOS = 100000000L;
+
+    /**
+     * The delay the slow stage adds to each frame that goes through the full
+     * pipeline, well over CHECK_BUDGET_NANOS so that the outcome does not depend
+     * on the machine.
+     */
+    public static long SLOW_STAGE_MILLIS = 20;
+    public static long CHECK_BUDGET_NANOS = 2000000L;
+    public static int CHECK_FRAMES = 60;
+
+    public static void main(String[] args) {
+	OpenCvLoader.load();
+
+	SyntheticFrameSource source = new SyntheticFrameSource(FRAME_WIDTH, FRAME_HEIGHT, 1e6);
+	List<Mat> frames = new ArrayList<>();
+	for (int i = 0; i < FRAMES; i++) {
+	    Mat frame = new Mat();
+	    source.read(frame);
+	    frames.add(frame);
+	}
+
+	System.out.println("Cost per rung:");
+	int[] reference = null;
+	double fullMillis = 0;
+	for (QualityLevel level : QualityLevel.defaultLadder()) {
+	    ObjectTracker tracker = new ObjectTracker();
+	    // A one rung ladder pins the tracker to that rung
+	    tracker.setOverloadController(new OverloadController(Collections.singletonList(level), Long.MAX_VALUE));
+	    for (int i = 0; i < WARMUP_FRAMES; i++) {
+		tracker.processFrame(frames.get(i));
+	    }
+	    int[] states = new int[frames.size()];
+	    long start = System.nanoTime();
+	    for (int i = 0; i < frames.size(); i++) {
+		tracker.processFrame(frames.get(i));
+		states[i] = tracker.isObjectPresent() ? tracker.getDirection() : ObjectTracker.OBJECT_NOT_PRESENT;
+	    }
+	    double millisPerFrame = (System.nanoTime() - start) / 1e6 / frames.size();
+	    if (reference == null) {
+		reference = states;
+		fullMillis = millisPerFrame;
+	    }
+	    int matches = 0;
+	    for (int i = 0; i < states.length; i++) {
+		if (states[i] == reference[i]) {
+		    matches++;
+		}
+	    }
+	    // Frames skipped by a rung cost nothing, so this is the cost per frame read
+	    System.out.println(String.format("  %-20s %.3f ms/frame, agrees with full on %.1f%% of frames", level,
+		    millisPerFrame, 100.0 * matches / states.length));
+	    System.gc();
+	}
+
+	System.out.println("Simulated slow stage:");
+	boolean passed = simulate();
+
+	System.out.println("Tracker with a synthetic slow stage:");
+	passed = checkTracker(frames) && passed;
+
+	System.out.println("Live, with a budget of 60% of the full quality cost:");
+	ObjectTracker tracker = new ObjectTracker();
+	OverloadController controller = new OverloadController((long) (fullMillis * 0.6 * 1e6));
+	tracker.setOverloadController(controller);
+	QualityLevel lastLevel = tracker.getQualityLevel();
+	for (int i = 0; i < frames.size(); i++) {
+	    tracker.processFrame(frames.get(i));
+	    if (tracker.getQualityLevel() != lastLevel) {
+		lastLevel = tracker.getQualityLevel();
+		System.out.println("  frame " + i + ": " + lastLevel);
+	    }
+	}
+	System.out.println("  settled on " + tracker.getQualityLevel() + " after " + controller.getLevelChanges()
+		+ " changes, " + String.format("%.3f", controller.getAverageNanos() / 1e6) + " ms/frame against "
+		+ String.format("%.3f", controller.getFrameBudgetNanos() / 1e6) + " ms");
+
+	if (!passed) {
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Drive a controller with a stage costing half the budget, then two and a
+     * half times the budget, then half again.
+     * 
+     * @return True if the controller stepped down while overloaded and recovered
+     *         full quality afterwards
+     */
+    private static boolean simulate() {
+	OverloadController controller = new OverloadController(SIMULATED_BUDGET_NANOS);
+	int worstLevel = 0;
+	int levelAtOverloadEnd = 0;
+	int lastLevel = 0;
+	int frame = 0;
+	while (frame < 1000) {
+	    double load = frame >= 100 && frame < 300 ? 2.5 : 0.5;
+	    // Frames skipped by the rung do not reach the stage
+	    int interval = controller.getLevel().getFrameInterval();
+	    frame = frame + interval;
+	    long cost = (long) (SIMULATED_BUDGET_NANOS * load * SIMULATED_LEVEL_COSTS[controller.getLevelIndex()]);
+	    controller.frameProcessed(cost);
+	    int level = controller.getLevelIndex();
+	    if (level != lastLevel) {
+		System.out.println("  frame " + frame + ": " + controller.getLevel());
+		lastLevel = level;
+	    }
+	    worstLevel = Math.max(worstLevel, level);
+	    if (frame < 300) {
+		levelAtOverloadEnd = level;
+	    }
+	}
+	boolean passed = worstLevel > 0 && levelAtOverloadEnd > 0 && controller.getLevelIndex() == 0;
+	System.out.println("  " + (passed ? "passed" : "FAILED") + ": worst " + worstLevel + ", at the end of the overload "
+		+ levelAtOverloadEnd + ", at the end " + controller.getLevelIndex() + ", "
+		+ controller.getLevelChanges() + " changes");
+	return passed;
+    }
+
+    /**
+     * Run the ObjectTracker itself at the half FPS rung and with a slow stage,
+     * and check the frames it skips, the rectangles it maps back from a quarter of
+     * the resolution and that CamShift holds the level.
+     * 
+     * @param frames
+     *            Frames with a moving object for CamShift to follow
+     * @return True if every check passed
+     */
+    private static boolean checkTracker(List<Mat> frames) {
+	boolean passed = true;
+
+	// Only frames whose sequence is a multiple of the interval are processed
+	SlowTracker pinned = new SlowTracker(0);
+	pinned.setOverloadController(
+		new OverloadController(Collections.singletonList(QualityLevel.HALF_FPS), Long.MAX_VALUE));
+	int wrongSkips = 0;
+	for (int sequence = 1; sequence <= 20; sequence++) {
+	    TrackingResult before = pinned.getLastResult();
+	    pinned.process(frames.get(sequence), sequence);
+	    TrackingResult after = pinned.getLastResult();
+	    boolean processed = after != before && after.getFrameSequence() == sequence;
+	    if (processed != (sequence % QualityLevel.HALF_FPS.getFrameInterval() == 0)) {
+		wrongSkips++;
+	    }
+	}
+	passed = report("frames skipped by sequence", wrongSkips == 0, wrongSkips + " wrong") && passed;
+
+	// Odd sizes round the quarter resolution mask up, so an object in the
+	// corner maps back past the edge of the frame unless it is clamped
+	Mat frame = new Mat(483, 643, CvType.CV_8UC3, new Scalar(32, 32, 32));
+	Rect topLeft = new Rect(0, 0, 80, 80);
+	Rect bottomRight = new Rect(563, 403, 80, 80);
+	Imgproc.rectangle(frame, topLeft.tl(), new Point(topLeft.x + topLeft.width - 1,
+		topLeft.y + topLeft.height - 1), new Scalar(0, 200, 0), -1);
+	Imgproc.rectangle(frame, bottomRight.tl(), new Point(bottomRight.x + bottomRight.width - 1,
+		bottomRight.y + bottomRight.height - 1), new Scalar(0, 200, 0), -1);
+	List<Rect> rects = pinned.findObjects(frame);
+	boolean mapped = rects.size() == 2;
+	boolean clamped = false;
+	for (Rect rect : rects) {
+	    mapped = mapped && rect.x >= 0 && rect.y >= 0 && rect.x + rect.width <= frame.cols()
+		    && rect.y + rect.height <= frame.rows() && (contains(rect, topLeft) || contains(rect, bottomRight));
+	    clamped = clamped || (rect.x + rect.width == frame.cols() && rect.y + rect.height == frame.rows());
+	}
+	frame.release();
+	passed = report("rects mapped to full resolution", mapped, rects.toString()) && passed;
+	passed = report("rects clamped to the frame", clamped, rects.toString()) && passed;
+
+	// Without CamShift every frame pays for the slow stage, so the level drops
+	SlowTracker slow = new SlowTracker(SLOW_STAGE_MILLIS);
+	slow.setOverloadController(new OverloadController(CHECK_BUDGET_NANOS));
+	for (int sequence = 1; sequence <= OverloadController.STEP_DOWN_FRAMES * 2; sequence++) {
+	    slow.process(frames.get(sequence), sequence);
+	}
+	boolean stepped = slow.getQualityLevel() != QualityLevel.FULL;
+	passed = report("slow stage steps the level down", stepped, slow.getQualityLevel().toString()) && passed;
+
+	// With CamShift only the frames that go through the full pipeline are
+	// reported, and the level never changes on a frame CamShift followed
+	SlowTracker held = new SlowTracker(SLOW_STAGE_MILLIS);
+	long[] reports = { 0 };
+	OverloadController controller = new OverloadController(CHECK_BUDGET_NANOS) {
+	    @Override
+	    public synchronized QualityLevel frameProcessed(long elapsedNanos) {
+		reports[0]++;
+		return super.frameProcessed(elapsedNanos);
+	    }
+	};
+	held.setOverloadController(controller);
+	held.setCamShiftTracking(true);
+	int tracked = 0;
+	int changedWhileTracked = 0;
+	for (int sequence = 1; sequence <= CHECK_FRAMES; sequence++) {
+	    TrackingResult before = held.getLastResult();
+	    int detectedBefore = held.detectedFrames;
+	    QualityLevel levelBefore = held.getQualityLevel();
+	    held.process(frames.get(sequence), sequence);
+	    if (held.getLastResult() != before && held.detectedFrames == detectedBefore) {
+		tracked++;
+		if (held.getQualityLevel() != levelBefore) {
+		    changedWhileTracked++;
+		}
+	    }
+	}
+	held.setCamShiftTracking(false);
+	boolean hold = tracked > CHECK_FRAMES / 2 && changedWhileTracked == 0 && reports[0] == held.detectedFrames;
+	passed = report("CamShift holds the level", hold, tracked + " of " + CHECK_FRAMES + " frames tracked, "
+		+ reports[0] + " reported, " + held.detectedFrames + " detected, " + changedWhileTracked
+		+ " changes while tracked") && passed;
+	return passed;
+    }
+
+    private static boolean report(String name, boolean passed, String detail) {
+	System.out.println("  " + (passed ? "passed" : "FAILED") + ": " + name + ", " + detail);
+	return passed;
+    }
+
+    private static boolean contains(Rect outer, Rect inner) {
+	return outer.x <= inner.x && outer.y <= inner.y && outer.x + outer.width >= inner.x + inner.width
+		&& outer.y + outer.height >= inner.y + inner.height;
+    }
+
+    /**
+     * An ObjectTracker whose full pipeline takes an extra fixed delay, standing in
+     * for a slow stage, and which counts the frames that went through it.
+     */
+    private static class SlowTracker extends ObjectTracker {
+
+	private long delayMillis;
+	private int detectedFrames = 0;
+
+	private SlowTracker(long delayMillis) {
+	    this.delayMillis = delayMillis;
+	}
+
+	private void process(Mat frame, long sequence) {
+	    processFrame(new CapturedFrame(frame, "check", sequence));
+	}
+
+	@Override
+	protected List<Rect> findObjects(Mat frame) {
+	    detectedFrames++;
+	    List<Rect> rects = super.findObjects(frame);
+	    try {
+		Thread.sleep(delayMillis);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    return rects;
+	}
+    }
+}
@@ -0,0 +1,165 @@
+package com.anthonyeden.objectracking;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Watches how long the ObjectTracker takes per frame against the frame budget
+ * and steps down a ladder of QualityLevels when it falls behind, so decisions
+ * stay fresh instead of the tracker silently lagging the camera.
+ * 
+ * The processing time is smoothed with an exponential moving average. When it
+ * stays over the budget for STEP_DOWN_FRAMES processed frames the controller
+ * steps down one rung. When it stays under HEADROOM of the budget for the step
+ * up wait it steps back up one rung. If a step up is undone within
+ * STEP_DOWN_FRAMES * 2 frames the wait for that rung doubles, up to
+ * MAX_STEP_UP_FRAMES, so a rung that cannot be sustained is not retried on
+ * every wait. The budget of a rung that skips frames is multiplied by its
+ * frame interval.
+ * 
+ * The controller has no clock of its own. It is driven only by the times it is
+ * given, so the same sequence of times always gives the same levels.
+ */
+public class OverloadController {
+
+    public static double SMOOTHING = 0.3;
+    public static double HEADROOM = 0.6;
+    public static int STEP_DOWN_FRAMES = 3;
+    public static int STEP_UP_FRAMES = 30;
+    public static int MAX_STEP_UP_FRAMES = 960;
+
+    private List<QualityLevel> ladder;
+    private long frameBudgetNanos;
+
+    private int level = 0;
+    private double averageNanos = -1;
+    private int overBudgetFrames = 0;
+    private int underBudgetFrames = 0;
+    private int[] stepUpWaits;
+    private int framesSinceStepUp = -1;
+    private long levelChanges = 0;
+
+    /**
+     * Construct a new overload controller.
+     * 
+     * @param ladder
+     *            The quality levels, best first
+     * @param frameBudgetNanos
+     *            The time available to process each frame, usually the frame
+     *            grab period
+     */
+    public OverloadController(List<QualityLevel> ladder, long frameBudgetNanos) {
+	if (ladder.isEmpty()) {
+	    throw new IllegalArgumentException("The ladder needs at least one level");
+	}
+	this.ladder = ladder;
+	this.frameBudgetNanos = frameBudgetNanos;
+	this.stepUpWaits = new int[ladder.size()];
+	Arrays.fill(stepUpWaits, STEP_UP_FRAMES);
+    }
+
+    /**
+     * Construct a new overload controller with the default ladder.
+     * 
+     * @param frameBudgetNanos
+     *            The time available to process each frame
+     */
+    public OverloadController(long frameBudgetNanos) {
+	this(QualityLevel.defaultLadder(), frameBudgetNanos);
+    }
+
+    /**
+     * Record the time taken to process a frame at the current level, and step
+     * the level if needed.
+     * 
+     * @param elapsedNanos
+     *            The processing time of the frame
+     * @return The level to process the next frame at
+     */
+    public synchronized QualityLevel frameProcessed(long elapsedNanos) {
+	averageNanos = averageNanos < 0 ? elapsedNanos : averageNanos + SMOOTHING * (elapsedNanos - averageNanos);
+	if (framesSinceStepUp >= 0) {
+	    framesSinceStepUp = framesSinceStepUp + 1;
+	    if (framesSinceStepUp > STEP_DOWN_FRAMES * 2) {
+		// The step up held, so the rung can be retried promptly next time
+		stepUpWaits[level] = STEP_UP_FRAMES;
+		framesSinceStepUp = -1;
+	    }
+	}
+
+	long budget = frameBudgetNanos * ladder.get(level).getFrameInterval();
+	if (averageNanos > budget) {
+	    overBudgetFrames = overBudgetFrames + 1;
+	    underBudgetFrames = 0;
+	    if (overBudgetFrames >= STEP_DOWN_FRAMES && level < ladder.size() - 1) {
+		if (framesSinceStepUp >= 0) {
+		    // The last step up could not be sustained, back off before retrying it
+		    stepUpWaits[level] = Math.min(MAX_STEP_UP_FRAMES, stepUpWaits[level] * 2);
+		    framesSinceStepUp = -1;
+		}
+		setLevel(level + 1);
+	    }
+	} else if (level > 0 && averageNanos < budget * HEADROOM) {
+	    underBudgetFrames = underBudgetFrames + 1;
+	    overBudgetFrames = 0;
+	    if (underBudgetFrames >= stepUpWaits[level - 1]) {
+		setLevel(level - 1);
+		framesSinceStepUp = 0;
+	    }
+	} else {
+	    overBudgetFrames = 0;
+	    underBudgetFrames = 0;
+	}
+	return ladder.get(level);
+    }
+
+    private void setLevel(int level) {
+	this.level = level;
+	this.levelChanges = levelChanges + 1;
+	// Start measuring the new level afresh
+	averageNanos = -1;
+	overBudgetFrames = 0;
+	underBudgetFrames = 0;
+    }
+
+    /**
+     * Return the level frames are currently processed at.
+     * 
+     * @return The quality level
+     */
+    public synchronized QualityLevel getLevel() {
+	return ladder.get(level);
+    }
+
+    /**
+     * Return the position of the current level on the ladder.
+     * 
+     * @return 0 at full quality, higher when degraded
+     */
+    public synchronized int getLevelIndex() {
+	return level;
+    }
+
+    /**
+     * Return the smoothed processing time at the current level.
+     * 
+     * @return The average in nanoseconds, or 0 if no frame was processed at
+     *         this level yet
+     */
+    public synchronized long getAverageNanos() {
+	return Math.max(0, (long) averageNanos);
+    }
+
+    /**
+     * Return how many times the level has changed.
+     * 
+     * @return The number of level changes
+     */
+    public synchronized long getLevelChanges() {
+	return levelChanges;
+    }
+
+    public long getFrameBudgetNanos() {
+	return frameBudgetNanos;
+    }
+}
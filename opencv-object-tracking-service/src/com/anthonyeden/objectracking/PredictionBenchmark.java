@@ -0,0 +1,113 @@
+package com.anthonyeden.objectracking;
+
+import java.util.Random;
+
+import org.opencv.core.Rect;
+
+/**
+ * Compares the direction decided from the latest frame only with the direction
+ * from a DirectionPredictor, at a range of frame rates. A synthetic object
+ * swings left and right across a 640 pixel wide view, and each frame observes
+ * its bounding rectangle with some noise. The direction is sampled on a 100 Hz
+ * control tick and compared with the direction of the true position.
+ * 
+ * Accuracy is the share of control ticks where the decided direction matches
+ * the true one, and flips is the number of times the decided direction changed.
+ */
+public class PredictionBenchmark {
+
+    public static double[] FPS_VALUES = { 30, 15, 10, 5, 2 };
+    public static double CONTROL_HZ = 100;
+    public static double DURATION_SECONDS = 120;
+    public static double MEASUREMENT_JITTER = 6;
+
+    private static final int FRAME_WIDTH = 640;
+    private static final int OBJECT_SIZE = 80;
+    private static final Rect CENTER_TARGET = new Rect(FRAME_WIDTH / 2 - 100, 240 - 50, 200, 100);
+
+    public static void main(String[] args) {
+	int truthFlips = 0;
+	int lastTruth = Integer.MIN_VALUE;
+	for (long tick = 0; tick < DURATION_SECONDS * CONTROL_HZ; tick++) {
+	    int truth = trueDirection(tick / CONTROL_HZ);
+	    if (lastTruth != Integer.MIN_VALUE && truth != lastTruth) {
+		truthFlips++;
+	    }
+	    lastTruth = truth;
+	}
+	System.out.println("True direction flips: " + truthFlips);
+	System.out.println("fps\tlatest-accuracy\tlatest-flips\tpredicted-accuracy\tpredicted-flips");
+	for (double fps : FPS_VALUES) {
+	    run(fps);
+	}
+    }
+
+    private static void run(double fps) {
+	Random random = new Random(42);
+	DirectionPredictor predictor = new DirectionPredictor();
+	long controlTicks = (long) (DURATION_SECONDS * CONTROL_HZ);
+	double framePeriod = 1 / fps;
+	double nextFrame = 0;
+
+	int latestDirection = 0;
+	int latestMatches = 0, latestFlips = 0;
+	int predictedMatches = 0, predictedFlips = 0;
+	int lastPredicted = 0;
+
+	for (long tick = 0; tick < controlTicks; tick++) {
+	    double time = tick / CONTROL_HZ;
+	    long timeNanos = (long) (time * 1e9);
+	    if (time >= nextFrame) {
+		Rect observed = objectRect(time, random.nextGaussian() * MEASUREMENT_JITTER);
+		int direction = decide(observed);
+		if (direction != latestDirection) {
+		    latestFlips++;
+		}
+		latestDirection = direction;
+		predictor.observe(observed, timeNanos, CENTER_TARGET);
+		nextFrame = nextFrame + framePeriod;
+	    }
+
+	    int truth = trueDirection(time);
+	    if (latestDirection == truth) {
+		latestMatches++;
+	    }
+	    int predicted = predictor.direction(timeNanos, CENTER_TARGET);
+	    if (predicted == truth) {
+		predictedMatches++;
+	    }
+	    if (predicted != lastPredicted) {
+		predictedFlips++;
+	    }
+	    lastPredicted = predicted;
+	}
+
+	System.out.println(String.format("%.0f\t%.1f%%\t%d\t%.1f%%\t%d", fps, 100.0 * latestMatches / controlTicks,
+		latestFlips, 100.0 * predictedMatches / controlTicks, predictedFlips));
+    }
+
+    private static Rect objectRect(double time, double jitter) {
+	// Swing across the view, pausing briefly near the edges of the center target
+	double phase = Math.sin(2 * Math.PI * time / 8);
+	double centerX = FRAME_WIDTH / 2 + 220 * Math.signum(phase) * Math.pow(Math.abs(phase), 0.7) + jitter;
+	return new Rect((int) Math.round(centerX) - OBJECT_SIZE / 2, 240 - OBJECT_SIZE / 2, OBJECT_SIZE, OBJECT_SIZE);
+    }
+
+    private static int trueDirection(double time) {
+	return decide(objectRect(time, 0));
+    }
+
+    /**
+     * The decision ObjectTracker makes from a single frame.
+     */
+    private static int decide(Rect boundingRect) {
+	int left = Math.max(boundingRect.x, CENTER_TARGET.x);
+	int right = Math.min(boundingRect.x + boundingRect.width, CENTER_TARGET.x + CENTER_TARGET.width);
+	if (left <= right) {
+	    return 0;
+	} else if (boundingRect.x > CENTER_TARGET.x + CENTER_TARGET.width) {
+	    return 1;
+	}
+	return -1;
+    }
+}
@@ -0,0 +1,85 @@
+package com.anthonyeden.objectracking;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One rung of the quality ladder an OverloadController steps the ObjectTracker
+ * through when it cannot keep up. Each rung sets how many erode and dilate
+ * passes are run, the blur kernel size, the scale the frame is processed at
+ * and how many frames are read per frame processed.
+ */
+public class QualityLevel {
+
+    public static final QualityLevel FULL = new QualityLevel("full", 2, 7, 1.0, 1);
+    public static final QualityLevel SINGLE_MORPH = new QualityLevel("single-morph", 1, 7, 1.0, 1);
+    public static final QualityLevel SMALL_BLUR = new QualityLevel("small-blur", 1, 3, 1.0, 1);
+    public static final QualityLevel HALF_RESOLUTION = new QualityLevel("half-resolution", 1, 3, 0.5, 1);
+    public static final QualityLevel QUARTER_RESOLUTION = new QualityLevel("quarter-resolution", 1, 3, 0.25, 1);
+    public static final QualityLevel HALF_FPS = new QualityLevel("half-fps", 1, 3, 0.25, 2);
+
+    private String name;
+    private int morphPasses;
+    private int blurSize;
+    private double scale;
+    private int frameInterval;
+
+    /**
+     * Construct a new quality level.
+     * 
+     * @param name
+     *            The name reported for the level
+     * @param morphPasses
+     *            The number of erode and of dilate passes, 1 or 2
+     * @param blurSize
+     *            The width and height of the blur kernel
+     * @param scale
+     *            The scale frames are processed at, 1 for full resolution
+     * @param frameInterval
+     *            Process one frame in this many, 1 to process every frame
+     */
+    public QualityLevel(String name, int morphPasses, int blurSize, double scale, int frameInterval) {
+	this.name = name;
+	this.morphPasses = morphPasses;
+	this.blurSize = blurSize;
+	this.scale = scale;
+	this.frameInterval = frameInterval;
+    }
+
+    /**
+     * Return the default ladder, from full quality down. Each rung keeps the
+     * reductions of the rungs above it.
+     * 
+     * @return The levels, best first
+     */
+    public static List<QualityLevel> defaultLadder() {
+	return Collections.unmodifiableList(
+		Arrays.asList(FULL, SINGLE_MORPH, SMALL_BLUR, HALF_RESOLUTION, QUARTER_RESOLUTION, HALF_FPS));
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public int getMorphPasses() {
+	return morphPasses;
+    }
+
+    public int getBlurSize() {
+	return blurSize;
+    }
+
+    public double getScale() {
+	return scale;
+    }
+
+    public int getFrameInterval() {
+	return frameInterval;
+    }
+
+    @Override
+    public String toString() {
+	return name;
+    }
+}
@@ -0,0 +1,134 @@
+package com.anthonyeden.objectracking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+
+/**
+ * Measures the time from JVM start to the first tracking decision, with and
+ * without warming up the pipeline while the camera opens. Every run is a fresh
+ * JVM, since the costs being measured (class loading, native library loading,
+ * first use of each kernel, JIT) are only paid once per JVM. Opening the camera
+ * is simulated with a sleep of CAMERA_OPEN_MILLIS and the camera frames come
+ * from a synthetic source.
+ */
+public class StartupBenchmark {
+
+    public static int RUNS = 5;
+    public static int STEADY_FRAMES = 30;
+    public static long CAMERA_OPEN_MILLIS = 300;
+    public static int FRAME_WIDTH = 640;
+    public static int FRAME_HEIGHT = 480;
+
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final String[] FIELDS = { "main", "load", "firstFrame", "steadyFrame", "firstDecision" };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	if (args.length == 2 && args[0].equals("child")) {
+	    runChild(args[1].equals("warm"));
+	    return;
+	}
+
+	for (String mode : new String[] { "cold", "warm" }) {
+	    List<double[]> results = new ArrayList<>();
+	    for (int i = 0; i < RUNS; i++) {
+		results.add(runJvm(mode));
+	    }
+	    StringBuilder report = new StringBuilder(mode + " (median of " + RUNS + " JVMs):");
+	    for (int field = 0; field < FIELDS.length; field++) {
+		double[] values = new double[results.size()];
+		for (int i = 0; i < values.length; i++) {
+		    values[i] = results.get(i)[field];
+		}
+		Arrays.sort(values);
+		report.append(String.format(" %s=%.1fms", FIELDS[field], values[values.length / 2]));
+	    }
+	    System.out.println(report);
+	}
+    }
+
+    private static double[] runJvm(String mode) throws IOException, InterruptedException {
+	List<String> command = new ArrayList<>();
+	command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	command.add("-Djava.library.path=" + System.getProperty("java.library.path"));
+	for (String property : new String[] { "opencv.library", "opencv.cache" }) {
+	    if (System.getProperty(property) != null) {
+		command.add("-D" + property + "=" + System.getProperty(property));
+	    }
+	}
+	command.add(StartupBenchmark.class.getName());
+	command.add("child");
+	command.add(mode);
+
+	Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+	double[] result = null;
+	try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		if (line.startsWith(RESULT_PREFIX)) {
+		    String[] values = line.substring(RESULT_PREFIX.length()).split(" ");
+		    result = new double[values.length];
+		    for (int i = 0; i < values.length; i++) {
+			result[i] = Double.parseDouble(values[i]);
+		    }
+		}
+	    }
+	}
+	if (process.waitFor() != 0 || result == null) {
+	    throw new IOException("Benchmark JVM failed in " + mode + " mode");
+	}
+	return result;
+    }
+
+    private static void runChild(boolean warm) throws InterruptedException {
+	long main = ObjectTracker.millisSinceJvmStart();
+	OpenCvLoader.load();
+	ObjectTracker tracker = new ObjectTracker();
+	long[] firstDecision = { 0 };
+	tracker.addTrackingListener(result -> {
+	    if (result.getSequence() == 1) {
+		firstDecision[0] = ObjectTracker.millisSinceJvmStart();
+	    }
+	});
+
+	Thread warmUp = null;
+	if (warm) {
+	    warmUp = new Thread(() -> tracker.warmUp(ObjectTracker.WARMUP_FRAMES), "warm-up");
+	    warmUp.start();
+	}
+	Thread.sleep(CAMERA_OPEN_MILLIS);
+	if (warmUp != null) {
+	    warmUp.join();
+	}
+
+	SyntheticFrameSource source = new SyntheticFrameSource(FRAME_WIDTH, FRAME_HEIGHT, 1e6);
+	Mat frame = new Mat();
+	source.read(frame);
+	long start = System.nanoTime();
+	tracker.processFrame(frame);
+	double firstFrame = (System.nanoTime() - start) / 1e6;
+
+	start = System.nanoTime();
+	for (int i = 0; i < STEADY_FRAMES; i++) {
+	    source.read(frame);
+	    tracker.processFrame(frame);
+	}
+	double steadyFrame = (System.nanoTime() - start) / 1e6 / STEADY_FRAMES;
+	frame.release();
+	source.release();
+
+	System.out.println(RESULT_PREFIX + main + " " + OpenCvLoader.getLoadMillis() + " "
+		+ firstFrame + " " + steadyFrame + " " + firstDecision[0]);
+    }
+}
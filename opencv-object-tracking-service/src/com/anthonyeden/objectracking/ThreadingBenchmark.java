@@ -0,0 +1,96 @@
+package com.anthonyeden.objectracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.RuntimeConfig;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+
+/**
+ * Measures the throughput of the ObjectTracker pipeline for each combination
+ * of Java workers, OpenCV threads and IPP on or off. Each worker runs its own
+ * tracker over a shared list of synthetic frames. The row RuntimeConfig would
+ * pick for each number of workers is marked with a *.
+ */
+public class ThreadingBenchmark {
+
+    public static int FRAMES = 200;
+    public static int FRAME_WIDTH = 640;
+    public static int FRAME_HEIGHT = 480;
+
+    public static void main(String[] args) throws InterruptedException {
+	OpenCvLoader.load();
+	int cpus = RuntimeConfig.CPUS;
+
+	SyntheticFrameSource source = new SyntheticFrameSource(FRAME_WIDTH, FRAME_HEIGHT, 1e6);
+	List<Mat> frames = new ArrayList<>();
+	for (int i = 0; i < FRAMES; i++) {
+	    Mat frame = new Mat();
+	    source.read(frame);
+	    frames.add(frame);
+	}
+
+	System.out.println("CPUs: " + cpus);
+	System.out.println("workers\topencv\tipp\tframes/s");
+	for (int workers : counts(cpus)) {
+	    for (int openCvThreads : counts(cpus)) {
+		for (boolean ipp : new boolean[] { true, false }) {
+		    RuntimeConfig.OPENCV_THREADS = openCvThreads;
+		    RuntimeConfig.USE_IPP = ipp;
+		    RuntimeConfig.apply(workers);
+		    double fps = run(frames, workers);
+		    // Released Mats only give back their native memory once collected
+		    System.gc();
+		    boolean chosen = ipp && openCvThreads == Math.max(1, cpus / workers);
+		    System.out.println(String.format("%d\t%d\t%s\t%.1f%s", workers, openCvThreads, ipp ? "on" : "off",
+			    fps, chosen ? " *" : ""));
+		}
+	    }
+	}
+	RuntimeConfig.OPENCV_THREADS = 0;
+	RuntimeConfig.USE_IPP = true;
+    }
+
+    private static List<Integer> counts(int cpus) {
+	TreeSet<Integer> counts = new TreeSet<>();
+	for (int count = 1; count < cpus; count *= 2) {
+	    counts.add(count);
+	}
+	counts.add(cpus);
+	counts.add(cpus * 2);
+	return new ArrayList<>(counts);
+    }
+
+    private static double run(List<Mat> frames, int workers) throws InterruptedException {
+	// Warm each worker's tracker before timing
+	List<ObjectTracker> trackers = new ArrayList<>();
+	for (int i = 0; i < workers; i++) {
+	    ObjectTracker tracker = new ObjectTracker();
+	    tracker.processFrame(frames.get(0));
+	    trackers.add(tracker);
+	}
+
+	AtomicInteger next = new AtomicInteger();
+	List<Thread> threads = new ArrayList<>();
+	long start = System.nanoTime();
+	for (ObjectTracker tracker : trackers) {
+	    Thread thread = new Thread(() -> {
+		int index;
+		while ((index = next.getAndIncrement()) < frames.size()) {
+		    tracker.processFrame(frames.get(index));
+		}
+	    });
+	    thread.start();
+	    threads.add(thread);
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	return frames.size() / ((System.nanoTime() - start) / 1e9);
+    }
+}
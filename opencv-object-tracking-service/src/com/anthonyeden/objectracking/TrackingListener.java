@@ -0,0 +1,15 @@
+package com.anthonyeden.objectracking;
+
+/**
+ * Receives the result of every frame processed by an ObjectTracker.
+ */
+public interface TrackingListener {
+
+    /**
+     * Called on the tracker's thread after a frame has been processed.
+     * 
+     * @param result
+     *            The tracking result
+     */
+    void trackingUpdated(TrackingResult result);
+}
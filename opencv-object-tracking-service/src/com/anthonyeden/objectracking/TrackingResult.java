@@ -0,0 +1,187 @@
+package com.anthonyeden.objectracking;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+/**
+ * The outcome of processing one frame: whether the object is present, which
+ * way to turn, and the bounding rectangles that were found, along with which
+ * frame it was decided from and how long after its capture.
+ * 
+ * On the wire a result is encoded big-endian as the message length (int, not
+ * counting itself), format version (byte, {@link #VERSION}), sequence (long),
+ * timestamp (long), frame sequence (long),
+ * capture timestamp (long), latency (int), source ID length (short) and UTF-8
+ * bytes, presence (byte), direction (byte), rectangle count (short) and then x,
+ * y, width and height (int each) of every rectangle. A reader should reject a
+ * version it does not know, since the rest of the layout depends on it.
+ */
+public class TrackingResult {
+
+    /**
+     * The version of the wire format. Version 1 had no version byte and started
+     * with the sequence, so its first byte is always 0.
+     */
+    public static final int VERSION = 2;
+
+    private static final int FIXED_SIZE = 1 + 8 + 8 + 8 + 8 + 4 + 2 + 1 + 1 + 2;
+    private static final int RECT_SIZE = 4 * 4;
+
+    private long sequence;
+    private long timestamp;
+    private String sourceId;
+    private long frameSequence;
+    private long captureTimestamp;
+    private int latencyMicros;
+    private boolean objectPresent;
+    private int direction;
+    private List<Rect> rects;
+
+    /**
+     * Construct a new tracking result.
+     * 
+     * @param sequence
+     *            The number of the frame within the tracker, starting at 1
+     * @param timestamp
+     *            The time the frame was processed in milliseconds since the epoch
+     * @param sourceId
+     *            The ID of the camera or file the frame came from
+     * @param frameSequence
+     *            The number of the frame within its source
+     * @param captureTimestamp
+     *            The time the frame was captured in milliseconds since the epoch
+     * @param latencyMicros
+     *            The time from capturing the frame to this result in
+     *            microseconds
+     * @param objectPresent
+     *            True if the object is present
+     * @param direction
+     *            1 for right, 0 for stop, -1 for left
+     * @param rects
+     *            The bounding rectangles of the object
+     */
+    public TrackingResult(long sequence, long timestamp, String sourceId, long frameSequence, long captureTimestamp,
+	    int latencyMicros, boolean objectPresent, int direction, List<Rect> rects) {
+	this.sequence = sequence;
+	this.timestamp = timestamp;
+	this.sourceId = sourceId;
+	this.frameSequence = frameSequence;
+	this.captureTimestamp = captureTimestamp;
+	this.latencyMicros = latencyMicros;
+	this.objectPresent = objectPresent;
+	this.direction = direction;
+	this.rects = Collections.unmodifiableList(rects);
+    }
+
+    public long getSequence() {
+	return sequence;
+    }
+
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    public String getSourceId() {
+	return sourceId;
+    }
+
+    public long getFrameSequence() {
+	return frameSequence;
+    }
+
+    public long getCaptureTimestamp() {
+	return captureTimestamp;
+    }
+
+    public int getLatencyMicros() {
+	return latencyMicros;
+    }
+
+    public boolean isObjectPresent() {
+	return objectPresent;
+    }
+
+    public int getDirection() {
+	return direction;
+    }
+
+    public List<Rect> getRects() {
+	return rects;
+    }
+
+    /**
+     * Encode the result, including its length prefix, into a new buffer ready to
+     * be written.
+     * 
+     * @return The encoded result
+     */
+    public ByteBuffer encode() {
+	byte[] source = sourceId.getBytes(StandardCharsets.UTF_8);
+	int length = FIXED_SIZE + source.length + rects.size() * RECT_SIZE;
+	ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+	buffer.putInt(length);
+	buffer.put((byte) VERSION);
+	buffer.putLong(sequence);
+	buffer.putLong(timestamp);
+	buffer.putLong(frameSequence);
+	buffer.putLong(captureTimestamp);
+	buffer.putInt(latencyMicros);
+	buffer.putShort((short) source.length);
+	buffer.put(source);
+	buffer.put((byte) (objectPresent ? 1 : 0));
+	buffer.put((byte) direction);
+	buffer.putShort((short) rects.size());
+	for (Rect rect : rects) {
+	    buffer.putInt(rect.x);
+	    buffer.putInt(rect.y);
+	    buffer.putInt(rect.width);
+	    buffer.putInt(rect.height);
+	}
+	buffer.flip();
+	return buffer;
+    }
+
+    /**
+     * Decode a result from the given buffer, positioned after the length prefix.
+     * 
+     * @param buffer
+     *            The buffer holding the message
+     * @return The decoded result
+     * @throws IllegalArgumentException
+     *             If the message is in a version this class does not know
+     */
+    public static TrackingResult decode(ByteBuffer buffer) {
+	int version = buffer.get();
+	if (version != VERSION) {
+	    throw new IllegalArgumentException("Unsupported tracking result version " + version);
+	}
+	long sequence = buffer.getLong();
+	long timestamp = buffer.getLong();
+	long frameSequence = buffer.getLong();
+	long captureTimestamp = buffer.getLong();
+	int latencyMicros = buffer.getInt();
+	byte[] source = new byte[buffer.getShort()];
+	buffer.get(source);
+	boolean objectPresent = buffer.get() != 0;
+	int direction = buffer.get();
+	int rectCount = buffer.getShort();
+	Rect[] rects = new Rect[rectCount];
+	for (int i = 0; i < rectCount; i++) {
+	    rects[i] = new Rect(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+	}
+	return new TrackingResult(sequence, timestamp, new String(source, StandardCharsets.UTF_8), frameSequence,
+		captureTimestamp, latencyMicros, objectPresent, direction, Arrays.asList(rects));
+    }
+
+    @Override
+    public String toString() {
+	return "TrackingResult [sequence=" + sequence + ", sourceId=" + sourceId + ", frameSequence=" + frameSequence
+		+ ", latencyMicros=" + latencyMicros + ", objectPresent=" + objectPresent + ", direction=" + direction
+		+ ", rects=" + rects + "]";
+    }
+}
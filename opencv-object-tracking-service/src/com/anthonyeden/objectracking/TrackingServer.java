@@ -0,0 +1,254 @@
+package com.anthonyeden.objectracking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pushes tracking results to any number of TCP subscribers. Register it as a
+ * TrackingListener on an ObjectTracker and connect with a plain socket to read
+ * the length-prefixed messages described in TrackingResult.
+ * 
+ * Each result is encoded once and queued for every subscriber. All socket
+ * writes are non-blocking and done by a single selector thread, so a slow
+ * subscriber never holds up the tracker. Each subscriber's queue is bounded;
+ * when it is full the oldest result that has not started sending is dropped,
+ * since only the latest decision matters. A result that is partly written is
+ * always finished, so the stream never loses its framing.
+ * 
+ * The server listens on the loopback address unless it is started with another
+ * bind address.
+ */
+public class TrackingServer implements TrackingListener {
+
+    public static int MAX_QUEUED_RESULTS = 16;
+
+    /**
+     * The socket send buffer size for each subscriber, or 0 for the system
+     * default. A smaller buffer holds fewer stale results in the kernel, so more
+     * of them are dropped from the queue instead.
+     */
+    public static int SEND_BUFFER_BYTES = 0;
+
+    private class Subscriber {
+	private SocketChannel channel;
+	private Deque<ByteBuffer> queue = new ArrayDeque<>();
+	private long dropped = 0;
+
+	Subscriber(SocketChannel channel) {
+	    this.channel = channel;
+	}
+
+	synchronized void enqueue(ByteBuffer message) {
+	    if (queue.size() >= MAX_QUEUED_RESULTS) {
+		dropped = dropped + 1;
+		ByteBuffer head = queue.removeFirst();
+		if (head.position() > 0) {
+		    // The head is partly written, so keep it and drop the one behind
+		    // it, or the new result if there is nothing behind it
+		    if (queue.isEmpty()) {
+			queue.addFirst(head);
+			return;
+		    }
+		    queue.removeFirst();
+		    queue.addFirst(head);
+		}
+	    }
+	    queue.addLast(message.duplicate());
+	}
+
+	synchronized boolean flush() throws IOException {
+	    while (!queue.isEmpty()) {
+		ByteBuffer message = queue.peekFirst();
+		channel.write(message);
+		if (message.hasRemaining()) {
+		    return false;
+		}
+		queue.removeFirst();
+	    }
+	    return true;
+	}
+    }
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    /**
+     * Start accepting subscribers on the given port of the loopback address.
+     * 
+     * @param port
+     *            The port, or 0 for any free port
+     * @throws IOException
+     *             If the server cannot be bound
+     */
+    public void start(int port) throws IOException {
+	start(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    /**
+     * Start accepting subscribers on the given address and port.
+     * 
+     * @param bindAddress
+     *            The address to listen on, such as 0.0.0.0 for every interface
+     * @param port
+     *            The port, or 0 for any free port
+     * @throws IOException
+     *             If the server cannot be bound
+     */
+    public void start(String bindAddress, int port) throws IOException {
+	selector = Selector.open();
+	serverChannel = ServerSocketChannel.open();
+	serverChannel.bind(new InetSocketAddress(bindAddress, port));
+	serverChannel.configureBlocking(false);
+	serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	running = true;
+	selectorThread = new Thread(this::run, "tracking-server");
+	selectorThread.setDaemon(true);
+	selectorThread.start();
+	System.out.println("Tracking server listening on " + bindAddress + " port " + getPort());
+    }
+
+    /**
+     * Stop the server and disconnect all subscribers.
+     * 
+     * @throws InterruptedException
+     *             If interrupted while waiting for the selector thread
+     */
+    public void stop() throws InterruptedException {
+	running = false;
+	selector.wakeup();
+	selectorThread.join();
+    }
+
+    /**
+     * Return the port the server is bound to.
+     * 
+     * @return The port
+     */
+    public int getPort() {
+	return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Return the number of connected subscribers.
+     * 
+     * @return The number of subscribers
+     */
+    public int getSubscriberCount() {
+	return subscribers.size();
+    }
+
+    @Override
+    public void trackingUpdated(TrackingResult result) {
+	if (subscribers.isEmpty()) {
+	    return;
+	}
+	ByteBuffer message = result.encode();
+	for (Subscriber subscriber : subscribers) {
+	    subscriber.enqueue(message);
+	}
+	selector.wakeup();
+    }
+
+    private void run() {
+	try {
+	    while (running) {
+		selector.select();
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+		    SelectionKey key = keys.next();
+		    keys.remove();
+		    if (key.isValid() && key.isAcceptable()) {
+			accept();
+		    } else if (key.isValid() && key.isReadable()) {
+			read(key);
+		    }
+		}
+		for (Subscriber subscriber : subscribers) {
+		    flush(subscriber);
+		}
+	    }
+	} catch (IOException e) {
+	    System.err.println("Tracking server failed: " + e);
+	} finally {
+	    for (Subscriber subscriber : subscribers) {
+		close(subscriber);
+	    }
+	    try {
+		serverChannel.close();
+		selector.close();
+	    } catch (IOException e) {
+		System.err.println("Exception closing tracking server: " + e);
+	    }
+	}
+    }
+
+    private void accept() throws IOException {
+	SocketChannel channel = serverChannel.accept();
+	if (channel == null) {
+	    return;
+	}
+	channel.configureBlocking(false);
+	channel.socket().setTcpNoDelay(true);
+	if (SEND_BUFFER_BYTES > 0) {
+	    channel.socket().setSendBufferSize(SEND_BUFFER_BYTES);
+	}
+	Subscriber subscriber = new Subscriber(channel);
+	channel.register(selector, SelectionKey.OP_READ, subscriber);
+	subscribers.add(subscriber);
+	System.out.println("Subscriber connected from " + channel.getRemoteAddress());
+    }
+
+    private void read(SelectionKey key) {
+	// Subscribers do not send anything, a read only tells us they have gone
+	Subscriber subscriber = (Subscriber) key.attachment();
+	try {
+	    if (subscriber.channel.read(ByteBuffer.allocate(64)) < 0) {
+		close(subscriber);
+	    }
+	} catch (IOException e) {
+	    close(subscriber);
+	}
+    }
+
+    private void flush(Subscriber subscriber) {
+	SelectionKey key = subscriber.channel.keyFor(selector);
+	if (key == null || !key.isValid()) {
+	    return;
+	}
+	try {
+	    boolean done = subscriber.flush();
+	    int interest = SelectionKey.OP_READ | (done ? 0 : SelectionKey.OP_WRITE);
+	    if (key.interestOps() != interest) {
+		key.interestOps(interest);
+	    }
+	} catch (IOException e) {
+	    close(subscriber);
+	}
+    }
+
+    private void close(Subscriber subscriber) {
+	subscribers.remove(subscriber);
+	try {
+	    subscriber.channel.close();
+	} catch (IOException e) {
+	    System.err.println("Exception closing subscriber: " + e);
+	}
+	if (subscriber.dropped > 0) {
+	    System.out.println("Subscriber dropped " + subscriber.dropped + " results");
+	}
+    }
+}
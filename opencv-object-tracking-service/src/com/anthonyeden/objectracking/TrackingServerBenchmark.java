@@ -0,0 +1,197 @@
+package com.anthonyeden.objectracking;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.SyntheticFrameSource;
+
+/**
+ * Measures the latency from a frame being read to its tracking result arriving
+ * at a subscriber of a TrackingServer over the loopback interface. Frames come
+ * from a SyntheticFrameSource and are processed by a real ObjectTracker, and
+ * the subscribers run in this JVM so send and receive times share a clock.
+ * 
+ * One more subscriber reads a few bytes at a time through a small receive
+ * buffer while frames are processed, so the server has to drop results from a
+ * queue whose head is only partly written. It checks that every message it
+ * receives still decodes, with increasing sequences, and the benchmark exits
+ * with status 1 if the framing was lost.
+ */
+public class TrackingServerBenchmark {
+
+    public static int SUBSCRIBERS = 8;
+    public static int FRAMES = 600;
+    public static double FPS = 30;
+    public static int SLOW_READ_BYTES = 8;
+    public static long SLOW_READ_PAUSE_MILLIS = 10;
+    public static int MAX_MESSAGE_BYTES = 65536;
+
+    /**
+     * An input stream that returns at most SLOW_READ_BYTES per read and pauses
+     * before each read until the frames have all been processed.
+     */
+    private static class SlowInputStream extends FilterInputStream {
+	private volatile boolean slow = true;
+
+	SlowInputStream(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    if (slow) {
+		try {
+		    Thread.sleep(SLOW_READ_PAUSE_MILLIS);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+		length = Math.min(length, SLOW_READ_BYTES);
+	    }
+	    return super.read(buffer, offset, length);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	OpenCvLoader.load();
+
+	long[] readTimes = new long[FRAMES + 1];
+	long[][] receiveTimes = new long[SUBSCRIBERS][FRAMES + 1];
+
+	TrackingServer.SEND_BUFFER_BYTES = 4096;
+	TrackingServer server = new TrackingServer();
+	server.start(0);
+
+	AtomicInteger finished = new AtomicInteger();
+	List<Thread> clients = new ArrayList<>();
+	for (int i = 0; i < SUBSCRIBERS; i++) {
+	    long[] times = receiveTimes[i];
+	    Thread client = new Thread(() -> {
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+		    socket.setTcpNoDelay(true);
+		    DataInputStream in = new DataInputStream(socket.getInputStream());
+		    while (true) {
+			byte[] message = new byte[in.readInt()];
+			in.readFully(message);
+			long received = System.nanoTime();
+			TrackingResult result = TrackingResult.decode(ByteBuffer.wrap(message));
+			times[(int) result.getSequence()] = received;
+			if (result.getSequence() >= FRAMES) {
+			    break;
+			}
+		    }
+		} catch (IOException e) {
+		    System.err.println("Subscriber failed: " + e);
+		}
+		finished.incrementAndGet();
+	    });
+	    client.start();
+	    clients.add(client);
+	}
+
+	AtomicLong slowReceived = new AtomicLong();
+	AtomicInteger framingErrors = new AtomicInteger();
+	Socket slowSocket = new Socket();
+	slowSocket.setReceiveBufferSize(1024);
+	slowSocket.connect(new InetSocketAddress("localhost", server.getPort()));
+	SlowInputStream slowIn = new SlowInputStream(slowSocket.getInputStream());
+	Thread slowClient = new Thread(() -> {
+	    try (Socket socket = slowSocket) {
+		socket.setSoTimeout(10000);
+		DataInputStream in = new DataInputStream(slowIn);
+		long lastSequence = 0;
+		while (lastSequence < FRAMES) {
+		    int length = in.readInt();
+		    if (length <= 0 || length > MAX_MESSAGE_BYTES) {
+			System.err.println("Slow subscriber read a message length of " + length);
+			framingErrors.incrementAndGet();
+			break;
+		    }
+		    byte[] message = new byte[length];
+		    in.readFully(message);
+		    TrackingResult result = TrackingResult.decode(ByteBuffer.wrap(message));
+		    if (result.getSequence() <= lastSequence || result.getSequence() > FRAMES) {
+			System.err.println("Slow subscriber read sequence " + result.getSequence() + " after "
+				+ lastSequence);
+			framingErrors.incrementAndGet();
+			break;
+		    }
+		    lastSequence = result.getSequence();
+		    slowReceived.incrementAndGet();
+		}
+	    } catch (IOException | RuntimeException e) {
+		System.err.println("Slow subscriber failed: " + e);
+		framingErrors.incrementAndGet();
+	    }
+	});
+	slowClient.start();
+
+	while (server.getSubscriberCount() < SUBSCRIBERS + 1) {
+	    Thread.sleep(10);
+	}
+
+	ObjectTracker tracker = new ObjectTracker();
+	tracker.addTrackingListener(server);
+	SyntheticFrameSource source = new SyntheticFrameSource(640, 480, FPS);
+	Mat frame = new Mat();
+	long processingNanos = 0;
+	for (int i = 1; i <= FRAMES; i++) {
+	    source.read(frame);
+	    long read = System.nanoTime();
+	    readTimes[i] = read;
+	    tracker.processFrame(frame);
+	    processingNanos += System.nanoTime() - read;
+	}
+	slowIn.slow = false;
+	for (Thread client : clients) {
+	    client.join(5000);
+	}
+	slowClient.join(5000);
+	server.stop();
+
+	List<Long> latencies = new ArrayList<>();
+	int missing = 0;
+	for (long[] times : receiveTimes) {
+	    for (int i = 1; i <= FRAMES; i++) {
+		if (times[i] == 0) {
+		    missing++;
+		} else {
+		    latencies.add(times[i] - readTimes[i]);
+		}
+	    }
+	}
+	long[] sorted = new long[latencies.size()];
+	for (int i = 0; i < sorted.length; i++) {
+	    sorted[i] = latencies.get(i);
+	}
+	Arrays.sort(sorted);
+
+	System.out.println("Subscribers: " + SUBSCRIBERS + " (" + finished.get() + " finished), frames: " + FRAMES
+		+ ", missing: " + missing);
+	System.out.println(String.format("Mean processing: %.3f ms", processingNanos / 1e6 / FRAMES));
+	System.out.println(String.format("Frame to subscriber p50: %.3f ms, p99: %.3f ms, max: %.3f ms",
+		percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6));
+	System.out.println("Slow subscriber received " + slowReceived.get() + " of " + FRAMES + " results, "
+		+ framingErrors.get() + " framing errors");
+	if (framingErrors.get() > 0 || slowClient.isAlive()) {
+	    System.exit(1);
+	}
+    }
+
+    private static long percentile(long[] sorted, double p) {
+	int index = (int) Math.ceil(p * sorted.length) - 1;
+	return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
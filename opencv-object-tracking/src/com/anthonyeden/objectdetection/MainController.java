@@ -17,6 +17,9 @@ import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.videoio.VideoCapture;
 
+import com.anthonyeden.imagecapture.CapturedFrame;
+import com.anthonyeden.imagecapture.TraceRing;
+
 import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -73,6 +76,7 @@ public class MainController {
     private ScheduledExecutorService timer;
     private VideoCapture capture;
     private boolean cameraActive;
+    private long captureSequence = 0;
 
     private Size blurSize = new Size(7, 7);
 
@@ -115,11 +119,15 @@ public class MainController {
 		Runnable frameGrabber = new Runnable() {
 		    @Override
 		    public void run() {
-			Mat frame = grabFrame();
-			Image imageToShow = Utils.mat2Image(frame);
+			CapturedFrame frame = grabFrame();
+			long convertStart = TraceRing.start();
+			Image imageToShow = Utils.mat2Image(frame.getMat());
+			TraceRing.span("convert", frame, convertStart);
 			// render the image
+			long displayStart = TraceRing.start();
 			Platform.runLater(() -> {
 			    originalFrame.imageProperty().set(imageToShow);
+			    TraceRing.span("display", frame, displayStart);
 			});
 		    }
 		};
@@ -144,17 +152,23 @@ public class MainController {
 	return frameGrabSchedule;
     }
 
-    protected Mat grabFrame() {
+    protected CapturedFrame grabFrame() {
 	Mat frame = new Mat();
+	captureSequence = captureSequence + 1;
+	CapturedFrame capturedFrame = new CapturedFrame(frame, "camera-" + cameraId, captureSequence);
 
 	// check if the capture is open
 	if (this.capture.isOpened()) {
 	    try {
 		// read the current frame
+		long readStart = TraceRing.start();
 		this.capture.read(frame);
+		capturedFrame = new CapturedFrame(frame, "camera-" + cameraId, captureSequence);
+		TraceRing.span("read", capturedFrame, readStart);
 
 		// if the frame is not empty, process it
 		if (!frame.empty()) {
+		    long processStart = TraceRing.start();
 		    // System.out.println("Processing frame");
 		    Mat blurredImage = new Mat();
 		    Mat hsvImage = new Mat();
@@ -222,7 +236,8 @@ public class MainController {
 
 		    // find the object in the morph output and display the appropriate
 		    // bounding and target details in the primary camera image
-		    frame = findAndDrawObject(morphOutput, frame);
+		    findAndDrawObject(morphOutput, frame);
+		    TraceRing.span("process", capturedFrame, processStart);
 		}
 
 	    } catch (Exception e) {
@@ -230,7 +245,7 @@ public class MainController {
 	    }
 	}
 
-	return frame;
+	return capturedFrame;
     }
 
     private Mat findAndDrawObject(Mat morphOutput, Mat frame) {
@@ -1,8 +1,10 @@
 package com.anthonyeden.objectdetection;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 
-import org.opencv.core.Core;
+import com.anthonyeden.imagecapture.OpenCvLoader;
+import com.anthonyeden.imagecapture.TraceRing;
 
 import javafx.application.Application;
 import javafx.event.EventHandler;
@@ -28,6 +30,9 @@ public class ObjectDectionApp extends Application {
 			primaryStage.setOnCloseRequest((new EventHandler<WindowEvent>() {
 				public void handle(WindowEvent we) {
 					controller.setClosed();
+					if (TraceRing.ENABLED) {
+						TraceRing.get().dump(new OutputStreamWriter(System.out));
+					}
 				}
 			}));
 		} catch (IOException e) {
@@ -36,7 +41,7 @@ public class ObjectDectionApp extends Application {
 	}
 
 	public static void main(String[] args) {
-		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		OpenCvLoader.load();
 
 		launch(args);
 	}